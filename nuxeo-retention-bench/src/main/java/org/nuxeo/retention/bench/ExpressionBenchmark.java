@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.retention.service.RetentionExpressionEvaluator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the evaluation of the starting point expressions of event-based rules, against a record and against the
+ * event input only, as done by {@link org.nuxeo.retention.service.RetentionManager#evaluateConditionExpression}. The
+ * parsed expressions are cached, so the parsing cost is only paid during the warmup.
+ *
+ * @since 2023.5
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class ExpressionBenchmark extends RepositoryBenchmark {
+
+    protected static final String INPUT_EXPRESSION = "eventInput == 'contract-signed'";
+
+    protected static final String DOCUMENT_EXPRESSION = "document.type == 'File' && eventInput == 'contract-signed'";
+
+    protected RetentionExpressionEvaluator evaluator;
+
+    protected DocumentModel document;
+
+    @Setup
+    public void setup() {
+        evaluator = new RetentionExpressionEvaluator(1000);
+        InMemoryRepository repository = new InMemoryRepository();
+        document = repository.createRecord(null, repository.createRule(0, 0, 1, true)).getDocument();
+    }
+
+    @Benchmark
+    public Boolean evaluateOnInput() {
+        return evaluator.evaluate(INPUT_EXPRESSION, "contract-signed");
+    }
+
+    @Benchmark
+    public boolean evaluateOnDocument() {
+        return evaluator.evaluate(DOCUMENT_EXPRESSION, document, "contract-signed");
+    }
+
+}
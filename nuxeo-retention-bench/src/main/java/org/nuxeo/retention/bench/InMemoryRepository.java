@@ -0,0 +1,96 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.bench;
+
+import java.util.Calendar;
+
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Creates the documents of the benchmarks in the in-memory repository of the tests started by
+ * {@link RetentionBenchmarks}, so that the retention code paths are measured on real documents.
+ * <p>
+ * The documents are created in their own transaction, the benchmarks using them within the transaction of their
+ * iteration.
+ *
+ * @since 2023.5
+ */
+public class InMemoryRepository {
+
+    protected final CoreSession session;
+
+    public InMemoryRepository() {
+        String repositoryName = Framework.getService(RepositoryManager.class).getDefaultRepositoryName();
+        session = CoreInstance.getCoreSessionSystem(repositoryName);
+    }
+
+    public CoreSession getSession() {
+        return session;
+    }
+
+    /**
+     * Creates a retention rule with the given duration.
+     */
+    public RetentionRule createRule(long years, long months, long days, boolean enabled) {
+        return TransactionHelper.runInTransaction(() -> {
+            DocumentModel doc = session.createDocumentModel("/", "rule", "RetentionRule");
+            RetentionRule rule = doc.getAdapter(RetentionRule.class);
+            rule.setDurationYears(years);
+            rule.setDurationMonths(months);
+            rule.setDurationDays(days);
+            if (enabled) {
+                rule.enable();
+            } else {
+                rule.disable();
+            }
+            return session.createDocument(doc).getAdapter(RetentionRule.class);
+        });
+    }
+
+    /**
+     * Creates a record attached to the given rules, retained until the given date or whose retention is over if it
+     * is {@code null}.
+     */
+    public Record createRecord(Calendar retainUntil, RetentionRule... rules) {
+        return TransactionHelper.runInTransaction(() -> {
+            DocumentModel doc = session.createDocumentModel("/", "record", "File");
+            doc.addFacet(RetentionConstants.RECORD_FACET);
+            String[] ruleIds = new String[rules.length];
+            for (int i = 0; i < rules.length; i++) {
+                ruleIds[i] = rules[i].getDocument().getId();
+            }
+            doc.setPropertyValue(RetentionConstants.RECORD_RULE_IDS_PROP, ruleIds);
+            doc = session.createDocument(doc);
+            session.makeRecord(doc.getRef());
+            if (retainUntil != null) {
+                session.setRetainUntil(doc.getRef(), retainUntil, null);
+            }
+            return session.getDocument(doc.getRef()).getAdapter(Record.class);
+        });
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.bench;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.api.Framework;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the checks run on each record by the retention listeners and bulk actions: whether its retention has
+ * expired, and the lookup of its first enabled rule, the disabled rules being attached first. The rule is looked up
+ * both from its document and from the rule snapshots cached by the {@link RetentionManager}, which the retention code
+ * paths use.
+ *
+ * @since 2023.5
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class RecordBenchmark extends RepositoryBenchmark {
+
+    @Param({ "1", "5" })
+    public int ruleCount;
+
+    protected CoreSession session;
+
+    protected RetentionManager retentionManager;
+
+    protected Record retainedRecord;
+
+    protected Record expiredRecord;
+
+    @Setup
+    public void setup() {
+        InMemoryRepository repository = new InMemoryRepository();
+        session = repository.getSession();
+        retentionManager = Framework.getService(RetentionManager.class);
+        RetentionRule[] rules = new RetentionRule[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            rules[i] = repository.createRule(0, 0, 1, i == ruleCount - 1);
+        }
+        Calendar future = Calendar.getInstance();
+        future.add(Calendar.YEAR, 1);
+        retainedRecord = repository.createRecord(future, rules);
+        expiredRecord = repository.createRecord(null, rules);
+    }
+
+    @Benchmark
+    public boolean isRetentionExpiredRetained() {
+        return retainedRecord.isRetentionExpired();
+    }
+
+    @Benchmark
+    public boolean isRetentionExpiredExpired() {
+        return expiredRecord.isRetentionExpired();
+    }
+
+    @Benchmark
+    public RetentionRule getRule() {
+        return retainedRecord.getRule(session);
+    }
+
+    @Benchmark
+    public RetentionRuleSnapshot getRuleSnapshot() {
+        return retentionManager.getRuleSnapshot(retainedRecord, session);
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.bench;
+
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base state of the benchmarks using the documents of the {@link InMemoryRepository}, each iteration running within a
+ * transaction of the benchmark thread as the retention listeners and bulk actions do.
+ *
+ * @since 2023.5
+ */
+@State(Scope.Thread)
+public abstract class RepositoryBenchmark {
+
+    @Setup(Level.Iteration)
+    public void startTransaction() {
+        TransactionHelper.startTransaction();
+    }
+
+    @TearDown(Level.Iteration)
+    public void commitTransaction() {
+        TransactionHelper.commitOrRollbackTransaction();
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.bench;
+
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks against the in-memory repository of the tests, the Nuxeo runtime being started by the
+ * {@link FeaturesRunner} with the deployments of the retention tests. The benchmarks run in the JVM of the runtime, so
+ * they cannot be forked.
+ * <p>
+ * The arguments are the JMH command line options, for instance {@code -rf json -rff result.json RecordBenchmark}.
+ *
+ * @since 2023.5
+ */
+@RunWith(FeaturesRunner.class)
+@Features(AutomationFeature.class)
+@RepositoryConfig(init = DefaultRepositoryInit.class, cleanup = Granularity.CLASS)
+@Deploy("org.nuxeo.ecm.platform.types")
+@Deploy("org.nuxeo.ecm.core.management")
+@Deploy("org.nuxeo.ecm.default.config")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-core-types.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-adapters.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-vocabularies.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-content-template.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-service-framework.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-listeners.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-operations.xml")
+@Deploy("org.nuxeo.retention.core:OSGI-INF/retention-actions.xml")
+public class RetentionBenchmarks {
+
+    protected static String[] arguments = new String[0];
+
+    public static void main(String[] args) {
+        arguments = args;
+        System.exit(JUnitCore.runClasses(RetentionBenchmarks.class).wasSuccessful() ? 0 : 1);
+    }
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(arguments)).forks(0).build();
+        assertFalse("No benchmark run", new Runner(options).run().isEmpty());
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.bench;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.retention.adapters.RetentionRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the computation of the retain until date of a record from its starting point.
+ *
+ * @since 2023.5
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class RetentionRuleBenchmark extends RepositoryBenchmark {
+
+    protected RetentionRule rule;
+
+    protected Calendar startingPoint;
+
+    @Setup
+    public void setup() {
+        rule = new InMemoryRepository().createRule(7, 6, 15, true);
+        startingPoint = Calendar.getInstance();
+    }
+
+    @Benchmark
+    public Calendar getRetainUntilDateFrom() {
+        return rule.getRetainUntilDateFrom(startingPoint);
+    }
+
+}
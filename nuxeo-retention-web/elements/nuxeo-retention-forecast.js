@@ -0,0 +1,189 @@
+/**
+(C) Copyright Nuxeo Corp. (http://nuxeo.com/)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+import { mixinBehaviors } from '@polymer/polymer/lib/legacy/class.js';
+import { html } from '@polymer/polymer/lib/utils/html-tag.js';
+import { I18nBehavior } from '@nuxeo/nuxeo-ui-elements/nuxeo-i18n-behavior.js';
+import '@nuxeo/nuxeo-elements/nuxeo-operation.js';
+import '@nuxeo/nuxeo-ui-elements/nuxeo-data-table/iron-data-table.js';
+import '@nuxeo/nuxeo-ui-elements/nuxeo-data-table/data-table-column.js';
+import '@nuxeo/nuxeo-ui-elements/widgets/nuxeo-card.js';
+import '@nuxeo/nuxeo-ui-elements/widgets/nuxeo-date.js';
+import '@nuxeo/nuxeo-ui-elements/widgets/nuxeo-document-suggestion.js';
+import '@nuxeo/nuxeo-ui-elements/widgets/nuxeo-input.js';
+import '@polymer/paper-button/paper-button.js';
+
+/**
+`nuxeo-retention-forecast`
+@group Nuxeo UI
+@element nuxeo-retention-forecast
+*/
+class RetentionForecast extends mixinBehaviors([I18nBehavior], Nuxeo.Element) {
+  static get template() {
+    return html`
+      <style include="nuxeo-styles">
+        #table {
+          height: 50vh;
+        }
+      </style>
+      <nuxeo-page>
+        <div slot="header">
+          <span class="flex">[[i18n('retention.forecast')]]</span>
+        </div>
+        <nuxeo-card>
+          <nuxeo-operation id="op" op="Retention.GetExpirationForecast" loading="{{loading}}"> </nuxeo-operation>
+          <nuxeo-input name="days" type="number" min="1" value="{{days}}" label="[[i18n('retention.forecast.days')]]">
+          </nuxeo-input>
+          <nuxeo-document-suggestion
+            name="rule"
+            label="[[i18n('retention.forecast.rule')]]"
+            selected-item="{{rule}}"
+            min-chars="0"
+            result-formatter="[[ruleResultFormatter]]"
+            selection-formatter="[[ruleSelectionFormatter]]"
+            page-provider="manual_retention_rule_suggestion"
+          >
+          </nuxeo-document-suggestion>
+          <div class="buttons">
+            <paper-button name="refresh" class="primary" on-tap="_refresh" disabled$="[[loading]]">
+              [[i18n('retention.forecast.refresh')]]
+            </paper-button>
+          </div>
+        </nuxeo-card>
+
+        <nuxeo-card heading="[[i18n('retention.forecast.total', total)]]">
+          <nuxeo-data-table id="table" items="[[items]]" empty-label="[[i18n('retention.forecast.empty')]]">
+            <nuxeo-data-table-column name="[[i18n('retention.forecast.day')]]">
+              <template><nuxeo-date datetime="[[item.day]]" format="LL"></nuxeo-date></template>
+            </nuxeo-data-table-column>
+            <nuxeo-data-table-column name="[[i18n('retention.forecast.rule')]]">
+              <template>[[item.rule]]</template>
+            </nuxeo-data-table-column>
+            <nuxeo-data-table-column name="[[i18n('retention.forecast.count')]]">
+              <template>[[item.count]]</template>
+            </nuxeo-data-table-column>
+          </nuxeo-data-table>
+        </nuxeo-card>
+      </nuxeo-page>
+    `;
+  }
+
+  static get is() {
+    return 'nuxeo-retention-forecast';
+  }
+
+  static get properties() {
+    return {
+      visible: {
+        type: Boolean,
+        observer: '_refresh',
+      },
+      days: {
+        type: Number,
+        value: 365,
+      },
+      /**
+       * Rule.
+       */
+      rule: Object,
+      items: {
+        type: Array,
+        value: () => [],
+      },
+      total: {
+        type: Number,
+        value: 0,
+      },
+      loading: Boolean,
+
+      /**
+       * Formatter for a suggested rule.
+       */
+      ruleResultFormatter: {
+        type: Function,
+        value() {
+          return this._ruleResultFormatter.bind(this);
+        },
+      },
+
+      /**
+       * Formatter for a selected rule.
+       */
+      ruleSelectionFormatter: {
+        type: Function,
+        value() {
+          return this._ruleSelectionFormatter.bind(this);
+        },
+      },
+    };
+  }
+
+  _refresh() {
+    if (this.visible) {
+      const params = { days: this.days };
+      if (this.rule) {
+        params.rule = this.rule.uid;
+      }
+      this.$.op.params = params;
+      return this.$.op.execute().then((forecast) => {
+        this.items = this._flatten(forecast);
+        this.total = this.items.reduce((total, item) => total + item.count, 0);
+      });
+    }
+  }
+
+  /**
+   * Flattens the forecast, the number of expirations by rule for each day, into one row by day and rule.
+   */
+  _flatten(forecast) {
+    return Object.keys(forecast || {})
+      .sort()
+      .flatMap((day) => Object.keys(forecast[day]).map((rule) => ({ day, rule, count: forecast[day][rule] })));
+  }
+
+  _ruleResultFormatter(doc) {
+    let result = this._escapeHTML(doc.title);
+    if (doc.properties && doc.properties['dc:description']) {
+      result += `<span style="display:block;color:#9a9a9a;word-break:break-all;">${this._escapeHTML(
+        doc.properties['dc:description'],
+      )}</span>`;
+    }
+    return result;
+  }
+
+  _ruleSelectionFormatter(doc) {
+    return this._escapeHTML(doc.title);
+  }
+
+  _escapeHTML(markup) {
+    const replaceMap = {
+      '\\': '&#92;',
+      '&': '&amp;',
+      '<': '&lt;',
+      '>': '&gt;',
+      '"': '&quot;',
+      "'": '&#39;',
+      '/': '&#47;',
+    };
+
+    // Do not try to escape the markup if it's not a string
+    if (typeof markup !== 'string') {
+      return markup;
+    }
+
+    return String(markup).replace(/[&<>"'/\\]/g, (match) => replaceMap[match]);
+  }
+}
+customElements.define(RetentionForecast.is, RetentionForecast);
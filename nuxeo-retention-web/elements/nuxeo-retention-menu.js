@@ -49,6 +49,7 @@ class RetentionMenu extends mixinBehaviors([FiltersBehavior, I18nBehavior, Routi
         </nuxeo-menu-item>
         <nuxeo-menu-item label="retention.search" name="search" route="page:retentionSearch"> </nuxeo-menu-item>
         <nuxeo-menu-item label="retention.events" name="events" route="page:retentionEvents"> </nuxeo-menu-item>
+        <nuxeo-menu-item label="retention.forecast" name="forecast" route="page:retentionForecast"> </nuxeo-menu-item>
       </div>
     `;
   }
@@ -18,6 +18,7 @@ import './elements/nuxeo-attach-rule-button.js';
 import './elements/nuxeo-hold-toggle-button.js';
 import './elements/nuxeo-retention-behavior.js';
 import './elements/nuxeo-retention-events.js';
+import './elements/nuxeo-retention-forecast.js';
 import './elements/nuxeo-retention-menu.js';
 import './elements/nuxeo-retain-button.js';
 import './elements/nuxeo-unattach-rule-button.js';
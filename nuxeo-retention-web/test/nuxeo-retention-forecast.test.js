@@ -0,0 +1,68 @@
+/**
+@license
+©2023 Hyland Software, Inc. and its affiliates. All rights reserved. 
+All Hyland product names are registered or unregistered trademarks of Hyland Software, Inc. or its affiliates.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+import { fixture, html } from '@nuxeo/testing-helpers';
+import '../elements/nuxeo-retention-forecast.js';
+import sinon from 'sinon';
+import { expect } from 'chai';
+
+suite('nuxeo-retention-forecast', () => {
+  let forecastEl;
+
+  setup(async () => {
+    forecastEl = await fixture(html` <nuxeo-retention-forecast></nuxeo-retention-forecast> `);
+  });
+
+  suite('test _flatten', () => {
+    test('Should return one row by day and rule sorted by day', async () => {
+      const forecast = {
+        '2023-06-02': { rule1: 2 },
+        '2023-06-01': { rule1: 1, none: 3 },
+      };
+      expect(forecastEl._flatten(forecast)).to.deep.equal([
+        { day: '2023-06-01', rule: 'rule1', count: 1 },
+        { day: '2023-06-01', rule: 'none', count: 3 },
+        { day: '2023-06-02', rule: 'rule1', count: 2 },
+      ]);
+    });
+
+    test('Should return no row if forecast is empty', async () => {
+      expect(forecastEl._flatten({})).to.deep.equal([]);
+      expect(forecastEl._flatten()).to.deep.equal([]);
+    });
+  });
+
+  suite('test _refresh', () => {
+    test('Should fetch the forecast and compute the total if visible is true', async () => {
+      sinon.stub(forecastEl.$.op, 'execute').resolves({ '2023-06-01': { rule1: 1, none: 3 } });
+      forecastEl.days = 30;
+      forecastEl.rule = 'rule1';
+      forecastEl.visible = true;
+      await forecastEl._refresh();
+      expect(forecastEl.$.op.params).to.deep.equal({ days: 30, rule: 'rule1' });
+      expect(forecastEl.items.length).equal(2);
+      expect(forecastEl.total).equal(4);
+    });
+
+    test('Should not fetch the forecast if visible is false', async () => {
+      sinon.stub(forecastEl.$.op, 'execute').resolves({});
+      forecastEl.visible = false;
+      forecastEl._refresh();
+      expect(forecastEl.$.op.execute.called).to.equal(false);
+    });
+  });
+});
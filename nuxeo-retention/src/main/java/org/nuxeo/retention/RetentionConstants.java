@@ -82,8 +82,23 @@ public class RetentionConstants {
 
     public static final String INPUT_PROPERTY_KEY = "input";
 
+    /**
+     * @since 2023.5
+     */
+    public static final String INPUTS_PROPERTY_KEY = "inputs";
+
     public static final String RETAIN_UNTIL_PROP = "record:retainUntil";
 
+    /**
+     * @since 2023.5
+     */
+    public static final String RECORD_STARTING_POINT_EVENT_PROP = "record:startingPointEvent";
+
+    /**
+     * @since 2023.5
+     */
+    public static final String RECORD_STARTING_POINT_VALUE_PROP = "record:startingPointValue";
+
     /**
      * @since 2023.4
      */
@@ -102,11 +117,79 @@ public class RetentionConstants {
             + " AND " + STARTING_POINT_POLICY_PROP + " = '"
             + RetentionRule.StartingPointPolicy.EVENT_BASED.name().toLowerCase() + "'";
 
+    /**
+     * @since 2023.5
+     */
+    public static final String ACTIVE_AUTO_RETENTION_RULES_QUERY = "SELECT " + NXQL.ECM_UUID + " FROM Document" //
+            + " WHERE ecm:mixinType = '" + RETENTION_RULE_FACET + "'" //
+            + " AND ecm:isTrashed = 0" //
+            + " AND ecm:isVersion = 0" //
+            + " AND " + ENABLED_PROP + " = 1" //
+            + " AND " + APPLICATION_POLICY_PROP + " = '"
+            + RetentionRule.ApplicationPolicy.AUTO.name().toLowerCase() + "'" //
+            + " ORDER BY dc:created";
+
     public static final String RULE_RECORD_DOCUMENT_QUERY = "SELECT * FROM Document" //
             + " WHERE ecm:mixinType = '" + RECORD_FACET + "'" //
             + " AND ecm:isRecord = 1" //
             + " AND ecm:retainUntil = TIMESTAMP '" + CoreSession.RETAIN_UNTIL_INDETERMINATE_ISO + "'";
 
+    /**
+     * Query selecting the records waiting for an event, whose starting point event has not been set yet.
+     *
+     * @since 2023.5
+     */
+    public static final String RECORD_WITHOUT_STARTING_POINT_QUERY = RULE_RECORD_DOCUMENT_QUERY //
+            + " AND " + RECORD_STARTING_POINT_EVENT_PROP + " IS NULL";
+
+    /**
+     * Query selecting the ids of a batch of documents. Expects the escaped comma separated ids as parameter.
+     *
+     * @since 2023.5
+     */
+    public static final String BATCH_DOCUMENT_IDS_QUERY = "SELECT " + NXQL.ECM_UUID + " FROM Document" //
+            + " WHERE " + NXQL.ECM_UUID + " IN (%s)";
+
+    /**
+     * Query selecting the ids and legal hold flag of a batch of documents. Expects the escaped comma separated ids as
+     * parameter.
+     *
+     * @since 2023.5
+     */
+    public static final String BATCH_DOCUMENT_LEGAL_HOLDS_QUERY = "SELECT " + NXQL.ECM_UUID + ", ecm:hasLegalHold"
+            + " FROM Document WHERE " + NXQL.ECM_UUID + " IN (%s)";
+
+    /**
+     * Query selecting the rules and retention date of a batch of records, one row per rule. Expects the escaped comma
+     * separated ids as parameter.
+     *
+     * @since 2023.5
+     */
+    public static final String BATCH_RECORD_RULES_QUERY = "SELECT " + NXQL.ECM_UUID + ", " + RECORD_RULE_IDS_PROP
+            + "/*1, ecm:retainUntil FROM Document" //
+            + " WHERE " + NXQL.ECM_UUID + " IN (%s)" //
+            + " AND ecm:mixinType = '" + RECORD_FACET + "'";
+
+    /**
+     * Query selecting the ids of a batch of expired records which can be disposed of, the records held since their
+     * expiration being excluded. Expects the escaped comma separated ids as parameter.
+     *
+     * @since 2023.5
+     */
+    public static final String DISPOSABLE_RECORDS_QUERY = "SELECT " + NXQL.ECM_UUID + " FROM Document" //
+            + " WHERE " + NXQL.ECM_UUID + " IN (%s)" //
+            + " AND ecm:isProxy = 0" //
+            + " AND ecm:isRecord = 1" //
+            + " AND ecm:hasLegalHold = 0" //
+            + " AND ecm:retainUntil IS NULL";
+
+    /**
+     * Name of the key/value store holding the retention state shared across the cluster.
+     *
+     * @since 2023.5
+     */
+    public static final String KV_STORE_NAME = "retention";
+
     public static final String EVENT_CATEGORY = "Retention";
 
     public static final String RULE_ATTACHED_EVENT = "retentionRuleAttached";
@@ -35,6 +35,7 @@ import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
 import org.nuxeo.lib.stream.computation.Topology;
 import org.nuxeo.retention.adapters.RetentionRule;
 import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionMetrics;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.stream.StreamProcessorTopology;
 
@@ -85,15 +86,12 @@ public class AttachRetentionRuleAction implements StreamProcessorTopology {
             // Attach rule
             DocumentModel ruleDoc = session.getDocument(new IdRef(ruleId));
             RetentionRule rule = ruleDoc.getAdapter(RetentionRule.class);
-            for (DocumentModel doc : loadDocuments(session, ids)) {
-                if (!retentionManager.canAttachRule(doc, rule, session)) {
-                    continue;
-                }
-                if (disableAudit) {
-                    doc.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, Boolean.TRUE);
-                }
-                retentionManager.attachRule(doc, rule, session);
+            List<DocumentModel> docs = loadDocuments(session, ids);
+            if (disableAudit) {
+                docs.forEach(doc -> doc.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, Boolean.TRUE));
             }
+            long applied = retentionManager.attachRule(docs, rule, session);
+            RetentionMetrics.countRecords(ACTION_NAME, applied, ids.size() - applied);
         }
     }
 
@@ -24,8 +24,12 @@ import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -37,8 +41,9 @@ import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
 import org.nuxeo.lib.stream.computation.Topology;
 import org.nuxeo.retention.RetentionConstants;
 import org.nuxeo.retention.adapters.Record;
-import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionMetrics;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.stream.StreamProcessorTopology;
 
@@ -58,6 +63,13 @@ public class EvalInputEventBasedRuleAction implements StreamProcessorTopology {
 
     public static final String ACTION_EVENT_ID_PARAM = "eventId";
 
+    /**
+     * List of event inputs, used instead of {@link #ACTION_EVENT_INPUT_PARAM} for events fired with several inputs.
+     *
+     * @since 2023.5
+     */
+    public static final String ACTION_EVENT_INPUTS_PARAM = "eventInputs";
+
     @Override
     public Topology getTopology(Map<String, String> options) {
         return Topology.builder()
@@ -76,7 +88,7 @@ public class EvalInputEventBasedRuleAction implements StreamProcessorTopology {
 
         protected String eventId;
 
-        protected String eventInput;
+        protected Set<String> eventInputs;
 
         public EvalInputEventBasedRuleComputation() {
             super(ACTION_FULL_NAME);
@@ -88,12 +100,20 @@ public class EvalInputEventBasedRuleAction implements StreamProcessorTopology {
             Serializable auditParam = command.getParam(NXAuditEventsService.DISABLE_AUDIT_LOGGER);
             disableAudit = auditParam != null && Boolean.parseBoolean(auditParam.toString());
             retentionManager = Framework.getService(RetentionManager.class);
-            eventInput = command.getParam(ACTION_EVENT_INPUT_PARAM);
+            Serializable inputs = command.getParam(ACTION_EVENT_INPUTS_PARAM);
+            if (inputs instanceof Collection) {
+                @SuppressWarnings("unchecked")
+                Collection<String> values = (Collection<String>) inputs;
+                eventInputs = new HashSet<>(values);
+            } else {
+                eventInputs = Collections.singleton(command.getParam(ACTION_EVENT_INPUT_PARAM));
+            }
             eventId = command.getParam(ACTION_EVENT_ID_PARAM);
         }
 
         @Override
         protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
+            long applied = 0;
             for (DocumentModel recordDoc : loadDocuments(session, ids)) {
                 if (!recordDoc.hasFacet(RetentionConstants.RECORD_FACET)) {
                     log.debug("Document {} is not a record, ignoring ...", recordDoc::getPathAsString);
@@ -106,13 +126,16 @@ public class EvalInputEventBasedRuleAction implements StreamProcessorTopology {
                             () -> (recordDoc.getRetainUntil() == null ? null : recordDoc.getRetainUntil().toInstant()));
                     continue;
                 }
-                RetentionRule rule = record.getRule(session);
-                if (!rule.isEventBased()) {
+                RetentionRuleSnapshot rule = retentionManager.getRuleSnapshot(record, session);
+                if (rule == null || !rule.isEventBased()) {
                     log.debug("Record {} does not have an event-based rule, ignoring ...", recordDoc::getPathAsString);
                     continue;
                 }
-                retentionManager.applyEventBasedRules(record, eventId, eventInput, session);
+                if (retentionManager.applyEventBasedRules(record, eventId, eventInputs, session)) {
+                    applied++;
+                }
             }
+            RetentionMetrics.countRecords(ACTION_NAME, applied, ids.size() - applied);
         }
     }
 
@@ -21,17 +21,27 @@ package org.nuxeo.retention.actions;
 import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_STREAM;
 import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
 import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
+import static org.nuxeo.retention.RetentionConstants.BATCH_DOCUMENT_LEGAL_HOLDS_QUERY;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
 import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionStatistics;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.stream.StreamProcessorTopology;
 
 /**
@@ -47,6 +57,13 @@ public class HoldDocumentsAction implements StreamProcessorTopology {
 
     public static final String PARAM_DESC = "description";
 
+    /**
+     * @since 2023.5
+     */
+    public static final String PARAM_CASE_ID = "caseId";
+
+    protected static final String LEGAL_HOLD_COLUMN = "ecm:hasLegalHold";
+
     @Override
     public Topology getTopology(Map<String, String> options) {
         return Topology.builder()
@@ -59,6 +76,8 @@ public class HoldDocumentsAction implements StreamProcessorTopology {
 
         protected String description;
 
+        protected String caseId;
+
         public SetLegalHoldComputation() {
             super(ACTION_FULL_NAME);
         }
@@ -67,19 +86,94 @@ public class HoldDocumentsAction implements StreamProcessorTopology {
         public void startBucket(String bucketKey) {
             BulkCommand command = getCurrentCommand();
             description = command.getParam(PARAM_DESC);
+            caseId = command.getParam(PARAM_CASE_ID);
         }
 
         @Override
         protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
-            ids.stream()
-               .map(IdRef::new)
-               .filter(docRef -> !session.hasLegalHold(docRef)
-                       && session.hasPermission(docRef, SecurityConstants.MANAGE_LEGAL_HOLD))
-               .forEach(docRef -> {
-                   session.makeRecord(docRef);
-                   session.setLegalHold(docRef, true, description);
-               });
+            Predicate<String> canManageLegalHold = canManageLegalHold(session);
+            RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+            String repositoryName = session.getRepositoryName();
+            Map<String, Boolean> legalHolds = getLegalHolds(session, ids);
+            List<String> managedIds = legalHolds.keySet()
+                                                .stream()
+                                                .filter(canManageLegalHold)
+                                                .collect(Collectors.toList());
+            List<String> heldIds = managedIds.stream().filter(legalHolds::get).collect(Collectors.toList());
+            List<String> unheldIds = managedIds.stream()
+                                               .filter(id -> !legalHolds.get(id))
+                                               .collect(Collectors.toList());
+            unheldIds.forEach(id -> setLegalHold(session, id));
+            retentionManager.getStatistics().update(repositoryName, RetentionStatistics.LEGAL_HOLDS, unheldIds.size());
+            if (caseId == null) {
+                // documents already under a case are now also held outside of it
+                retentionManager.addToLegalHoldWithoutCase(heldIds, repositoryName);
+            } else {
+                // documents already under legal hold still join the case
+                retentionManager.addToLegalHoldCase(caseId, managedIds, heldIds, repositoryName);
+            }
+        }
+
+        protected void setLegalHold(CoreSession session, String id) {
+            DocumentRef docRef = new IdRef(id);
+            session.makeRecord(docRef);
+            session.setLegalHold(docRef, true, description);
+        }
+    }
+
+    /**
+     * Returns, with a single query, the ids of the batch having or not a legal hold, or all of them if
+     * {@code hasLegalHold} is {@code null}. The documents the session cannot browse are filtered out by the query.
+     *
+     * @since 2023.5
+     */
+    public static List<String> getDocumentIdsByLegalHold(CoreSession session, List<String> ids,
+            Boolean hasLegalHold) {
+        return getLegalHolds(session, ids).entrySet()
+                                          .stream()
+                                          .filter(e -> hasLegalHold == null || hasLegalHold.equals(e.getValue()))
+                                          .map(Map.Entry::getKey)
+                                          .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns, with a single query, whether the documents of the batch have a legal hold. The documents the session
+     * cannot browse are filtered out by the query. The legal hold flag is projected rather than matched by the query,
+     * as it is not set on the documents which were never held and a {@code NULL} flag is not matched the same way on
+     * all the backends.
+     *
+     * @since 2023.5
+     */
+    public static Map<String, Boolean> getLegalHolds(CoreSession session, List<String> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        String query = String.format(BATCH_DOCUMENT_LEGAL_HOLDS_QUERY,
+                ids.stream().map(NXQL::escapeString).collect(Collectors.joining(", ")));
+        Map<String, Boolean> legalHolds = new LinkedHashMap<>();
+        session.queryProjection(query, 0, 0)
+               .forEach(m -> legalHolds.put((String) m.get(NXQL.ECM_UUID), isTrue(m.get(LEGAL_HOLD_COLUMN))));
+        return legalHolds;
+    }
+
+    protected static boolean isTrue(Serializable value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return value instanceof Number && ((Number) value).longValue() == 1;
+    }
+
+    /**
+     * Returns a predicate checking the {@link SecurityConstants#MANAGE_LEGAL_HOLD} permission on a document id, always
+     * true for administrators.
+     *
+     * @since 2023.5
+     */
+    public static Predicate<String> canManageLegalHold(CoreSession session) {
+        if (session.getPrincipal().isAdministrator()) {
+            return id -> true;
         }
+        return id -> session.hasPermission(new IdRef(id), SecurityConstants.MANAGE_LEGAL_HOLD);
     }
 
 }
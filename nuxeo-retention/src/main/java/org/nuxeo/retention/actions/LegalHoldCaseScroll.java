@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.actions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import org.nuxeo.ecm.core.api.scroll.Scroll;
+import org.nuxeo.ecm.core.api.scroll.ScrollRequest;
+import org.nuxeo.ecm.core.scroll.DocumentScrollRequest;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Document scroll streaming the membership of a legal hold case, the query of the request being the case id.
+ *
+ * @since 2023.5
+ */
+public class LegalHoldCaseScroll implements Scroll {
+
+    public static final String SCROLL_NAME = "legalHoldCase";
+
+    protected DocumentScrollRequest request;
+
+    protected Stream<String> stream;
+
+    protected Iterator<String> ids;
+
+    @Override
+    public void init(ScrollRequest request, Map<String, String> options) {
+        if (!(request instanceof DocumentScrollRequest)) {
+            throw new IllegalArgumentException("Requires a DocumentScrollRequest");
+        }
+        this.request = (DocumentScrollRequest) request;
+        stream = Framework.getService(RetentionManager.class)
+                          .getLegalHoldCaseDocumentIds(this.request.getQuery(), this.request.getRepository());
+        ids = stream.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return ids.hasNext();
+    }
+
+    @Override
+    public List<String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<String> batch = new ArrayList<>(request.getSize());
+        while (ids.hasNext() && batch.size() < request.getSize()) {
+            batch.add(ids.next());
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + request + ")";
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.actions;
+
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_STREAM;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
+import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionMetrics;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.stream.StreamProcessorTopology;
+
+/**
+ * Bulk action proceeding the records whose retention expired: the expired retain until date is saved on the records,
+ * then the end actions of their rule are executed for all the records of the bucket attached to the same rule.
+ *
+ * @since 2023.5
+ */
+public class ProceedRetentionExpiredAction implements StreamProcessorTopology {
+
+    public static final String ACTION_NAME = "proceedRetentionExpired";
+
+    public static final String ACTION_FULL_NAME = "retention/" + ACTION_NAME;
+
+    /**
+     * Map of the record ids to the ISO-8601 instant of their expired retain until date.
+     */
+    public static final String PARAM_RETAIN_UNTIL = "retainUntil";
+
+    @Override
+    public Topology getTopology(Map<String, String> options) {
+        return Topology.builder()
+                       .addComputation(ProceedRetentionExpiredComputation::new,
+                               List.of(INPUT_1 + ":" + ACTION_FULL_NAME, OUTPUT_1 + ":" + STATUS_STREAM))
+                       .build();
+    }
+
+    public static class ProceedRetentionExpiredComputation extends AbstractBulkComputation {
+
+        private static final Logger log = LogManager.getLogger(ProceedRetentionExpiredComputation.class);
+
+        protected Map<String, String> retainUntils;
+
+        public ProceedRetentionExpiredComputation() {
+            super(ACTION_FULL_NAME);
+        }
+
+        @Override
+        public void startBucket(String bucketKey) {
+            Serializable param = getCurrentCommand().getParam(PARAM_RETAIN_UNTIL);
+            if (param instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> values = (Map<String, String>) param;
+                retainUntils = values;
+            } else {
+                retainUntils = Collections.emptyMap();
+            }
+        }
+
+        @Override
+        protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
+            List<Record> records = new ArrayList<>(ids.size());
+            for (DocumentModel recordDoc : loadDocuments(session, ids)) {
+                if (!recordDoc.hasFacet(RetentionConstants.RECORD_FACET)) {
+                    log.debug("Document {} is not a record, ignoring ...", recordDoc::getPathAsString);
+                    continue;
+                }
+                Record record = recordDoc.getAdapter(Record.class);
+                if (!record.isRetentionExpired()) {
+                    log.debug("Record {} retention is not expired anymore, ignoring ...", recordDoc::getPathAsString);
+                    continue;
+                }
+                String retainUntil = retainUntils.get(recordDoc.getId());
+                if (retainUntil != null) {
+                    Calendar calendar = Calendar.getInstance();
+                    calendar.setTimeInMillis(Instant.parse(retainUntil).toEpochMilli());
+                    record.saveRetainUntil(calendar);
+                }
+                records.add(record);
+            }
+            RetentionMetrics.countRecords(ACTION_NAME, records.size(), ids.size() - records.size());
+            if (records.isEmpty()) {
+                return;
+            }
+            Record.save(records, session);
+            Framework.getService(RetentionManager.class).proceedRetentionExpired(records, session);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.actions;
+
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.DONE_STREAM;
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_STREAM;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.bulk.BulkCodecs;
+import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.bulk.message.BulkStatus;
+import org.nuxeo.lib.stream.computation.AbstractComputation;
+import org.nuxeo.lib.stream.computation.ComputationContext;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionStatistics;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.stream.StreamProcessorTopology;
+
+/**
+ * Bulk action recomputing the {@link RetentionStatistics} of a repository, to correct the drift of their incremental
+ * updates. The counters of each bucket are added to the ones of the command, which replace the statistics once the
+ * command is completed.
+ *
+ * @since 2023.5
+ */
+public class ReconcileRetentionStatisticsAction implements StreamProcessorTopology {
+
+    public static final String ACTION_NAME = "reconcileRetentionStatistics";
+
+    public static final String ACTION_FULL_NAME = "retention/" + ACTION_NAME;
+
+    public static final String COMPLETION_COMPUTATION_NAME = ACTION_FULL_NAME + "Completion";
+
+    public static final String QUERY = "SELECT * FROM Document WHERE ecm:isProxy = 0 AND ecm:isRecord = 1";
+
+    @Override
+    public Topology getTopology(Map<String, String> options) {
+        return Topology.builder()
+                       .addComputation(ReconcileRetentionStatisticsComputation::new,
+                               List.of(INPUT_1 + ":" + ACTION_FULL_NAME, OUTPUT_1 + ":" + STATUS_STREAM))
+                       .addComputation(ReconciliationCompletionComputation::new,
+                               List.of(INPUT_1 + ":" + DONE_STREAM))
+                       .build();
+    }
+
+    public static class ReconcileRetentionStatisticsComputation extends AbstractBulkComputation {
+
+        public ReconcileRetentionStatisticsComputation() {
+            super(ACTION_FULL_NAME);
+        }
+
+        @Override
+        protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
+            Map<String, Long> counters = new HashMap<>();
+            for (DocumentModel doc : loadDocuments(session, ids)) {
+                List<String> ruleIds = doc.hasFacet(RetentionConstants.RECORD_FACET)
+                        ? doc.getAdapter(org.nuxeo.retention.adapters.Record.class).getRuleIds()
+                        : Collections.emptyList();
+                RetentionStatistics.getCounters(ruleIds, doc.getRetainUntil(), doc.hasLegalHold())
+                                   .forEach((counter, value) -> counters.merge(counter, value, Long::sum));
+            }
+            RetentionStatistics statistics = Framework.getService(RetentionManager.class).getStatistics();
+            statistics.addReconciliation(session.getRepositoryName(), getCurrentCommand().getId(), counters);
+        }
+    }
+
+    /**
+     * Follows the completed bulk commands to replace the statistics once a reconciliation is completed.
+     */
+    public static class ReconciliationCompletionComputation extends AbstractComputation {
+
+        private static final Logger log = LogManager.getLogger(ReconciliationCompletionComputation.class);
+
+        public ReconciliationCompletionComputation() {
+            super(COMPLETION_COMPUTATION_NAME, 1, 0);
+        }
+
+        @Override
+        public void processRecord(ComputationContext context, String inputStreamName, Record record) {
+            BulkStatus status = BulkCodecs.getStatusCodec().decode(record.getData());
+            if (ACTION_NAME.equals(status.getAction()) && status.getState() == BulkStatus.State.COMPLETED) {
+                BulkCommand command = Framework.getService(BulkService.class).getCommand(status.getId());
+                if (status.getErrorCount() > 0) {
+                    // some documents were not counted, the statistics are kept until the next reconciliation
+                    log.warn("Reconciliation {} of retention statistics failed on {} documents, ignoring it",
+                            status::getId, status::getErrorCount);
+                } else if (command != null) {
+                    log.debug("Completing reconciliation {} of retention statistics of repository {}",
+                            status::getId, command::getRepository);
+                    Framework.getService(RetentionManager.class)
+                             .getStatistics()
+                             .completeReconciliation(command.getRepository(), status.getId());
+                }
+            }
+            context.askForCheckpoint();
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.actions;
+
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_STREAM;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
+import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionStatistics;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.stream.StreamProcessorTopology;
+
+/**
+ * Bulk action to release a legal hold case. The documents are expected to be streamed from the case membership by the
+ * {@link LegalHoldCaseScroll}, their legal hold is unset only once their last case is released.
+ *
+ * @since 2023.5
+ */
+public class ReleaseLegalHoldCaseAction implements StreamProcessorTopology {
+
+    public static final String ACTION_NAME = "releaseLegalHoldCase";
+
+    public static final String ACTION_FULL_NAME = "retention/" + ACTION_NAME;
+
+    public static final String PARAM_CASE_ID = "caseId";
+
+    @Override
+    public Topology getTopology(Map<String, String> options) {
+        return Topology.builder()
+                       .addComputation(ReleaseLegalHoldCaseComputation::new,
+                               List.of(INPUT_1 + ":" + ACTION_FULL_NAME, OUTPUT_1 + ":" + STATUS_STREAM))
+                       .build();
+    }
+
+    public static class ReleaseLegalHoldCaseComputation extends AbstractBulkComputation {
+
+        protected String caseId;
+
+        public ReleaseLegalHoldCaseComputation() {
+            super(ACTION_FULL_NAME);
+        }
+
+        @Override
+        public void startBucket(String bucketKey) {
+            caseId = getCurrentCommand().getParam(PARAM_CASE_ID);
+        }
+
+        @Override
+        protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
+            RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+            String repositoryName = session.getRepositoryName();
+            List<String> releasedIds = HoldDocumentsAction.getDocumentIdsByLegalHold(session, ids, true)
+                                                          .stream()
+                                                          .filter(HoldDocumentsAction.canManageLegalHold(session))
+                                                          .filter(id -> retentionManager.removeFromLegalHoldCase(
+                                                                  caseId, id, repositoryName))
+                                                          .collect(Collectors.toList());
+            releasedIds.forEach(id -> session.setLegalHold(new IdRef(id), false, null));
+            retentionManager.getStatistics()
+                            .update(repositoryName, RetentionStatistics.LEGAL_HOLDS, -releasedIds.size());
+        }
+    }
+
+}
@@ -26,12 +26,15 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.IdRef;
-import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
 import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionStatistics;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.stream.StreamProcessorTopology;
 
 /**
@@ -61,11 +64,17 @@ public class UnholdDocumentsAction implements StreamProcessorTopology {
 
         @Override
         protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
-            ids.stream()
-               .map(IdRef::new)
-               .filter(docRef -> session.hasLegalHold(docRef)
-                       && session.hasPermission(docRef, SecurityConstants.MANAGE_LEGAL_HOLD))
-               .forEach(docRef -> session.setLegalHold(docRef, false, null));
+            RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+            String repositoryName = session.getRepositoryName();
+            List<String> heldIds = HoldDocumentsAction.getDocumentIdsByLegalHold(session, ids, true)
+                                                      .stream()
+                                                      .filter(HoldDocumentsAction.canManageLegalHold(session))
+                                                      .collect(Collectors.toList());
+            heldIds.forEach(id -> {
+                session.setLegalHold(new IdRef(id), false, null);
+                retentionManager.removeFromLegalHoldCases(id, repositoryName);
+            });
+            retentionManager.getStatistics().update(repositoryName, RetentionStatistics.LEGAL_HOLDS, -heldIds.size());
         }
     }
 
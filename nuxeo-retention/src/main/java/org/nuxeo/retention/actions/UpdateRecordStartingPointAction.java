@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.actions;
+
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_STREAM;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.OUTPUT_1;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation;
+import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionMetrics;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.stream.StreamProcessorTopology;
+
+/**
+ * Bulk action setting on record documents the starting point event and value of their event-based retention rule. It
+ * backfills the records attached before these fields existed, and follows the modifications of the rules. Running it
+ * again on {@link RetentionConstants#RECORD_WITHOUT_STARTING_POINT_QUERY} resumes an interrupted backfill.
+ *
+ * @since 2023.5
+ */
+public class UpdateRecordStartingPointAction implements StreamProcessorTopology {
+
+    public static final String ACTION_NAME = "updateRecordStartingPoint";
+
+    public static final String ACTION_FULL_NAME = "retention/" + ACTION_NAME;
+
+    @Override
+    public Topology getTopology(Map<String, String> options) {
+        return Topology.builder()
+                       .addComputation(UpdateRecordStartingPointComputation::new,
+                               List.of(INPUT_1 + ":" + ACTION_FULL_NAME, OUTPUT_1 + ":" + STATUS_STREAM))
+                       .build();
+    }
+
+    public static class UpdateRecordStartingPointComputation extends AbstractBulkComputation {
+
+        private static final Logger log = LogManager.getLogger(UpdateRecordStartingPointComputation.class);
+
+        public UpdateRecordStartingPointComputation() {
+            super(ACTION_FULL_NAME);
+        }
+
+        @Override
+        protected void compute(CoreSession session, List<String> ids, Map<String, Serializable> properties) {
+            RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+            List<Record> records = new ArrayList<>(ids.size());
+            for (DocumentModel recordDoc : loadDocuments(session, ids)) {
+                if (!recordDoc.hasFacet(RetentionConstants.RECORD_FACET)) {
+                    log.debug("Document {} is not a record, ignoring ...", recordDoc::getPathAsString);
+                    continue;
+                }
+                Record record = recordDoc.getAdapter(Record.class);
+                RetentionRuleSnapshot rule = retentionManager.getRuleSnapshot(record, session);
+                String event = null;
+                String value = null;
+                if (rule != null && rule.isEventBased()) {
+                    event = rule.getStartingPointEvent();
+                    value = StringUtils.defaultIfEmpty(rule.getStartingPointValue(), null);
+                }
+                if (Objects.equals(event, record.getStartingPointEvent())
+                        && Objects.equals(value, record.getStartingPointValue())) {
+                    continue;
+                }
+                record.setStartingPoint(event, value);
+                records.add(record);
+            }
+            if (!records.isEmpty()) {
+                Record.save(records, session);
+            }
+            RetentionMetrics.countRecords(ACTION_NAME, records.size(), ids.size() - records.size());
+        }
+    }
+
+}
@@ -24,6 +24,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ecm.core.api.CoreSession;
@@ -76,7 +77,7 @@ public class Record {
 
     }
 
-    protected List<String> getRuleIds() {
+    public List<String> getRuleIds() {
         Serializable propertyValue = document.getPropertyValue(RetentionConstants.RECORD_RULE_IDS_PROP);
         if (propertyValue == null) {
             return Collections.emptyList();
@@ -112,13 +113,38 @@ public class Record {
     }
 
     protected void save(CoreSession session) {
+        beforeSave();
+        session.saveDocument(document);
+        afterSave();
+    }
+
+    /**
+     * Saves the records at once.
+     *
+     * @since 2023.5
+     */
+    public static void save(List<Record> records, CoreSession session) {
+        records.forEach(Record::beforeSave);
+        session.saveDocuments(records.stream().map(Record::getDocument).toArray(DocumentModel[]::new));
+        records.forEach(Record::afterSave);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void beforeSave() {
         document.putContextData(VersioningService.DISABLE_AUTOMATIC_VERSIONING, true);
         document.putContextData(DublinCoreListener.DISABLE_DUBLINCORE_LISTENER, true);
         document.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, true);
         document.putContextData(NXAuditEventsService.DISABLE_AUDIT_LOGGER, true);
         document.putContextData(VersioningService.DISABLE_AUTO_CHECKOUT, true);
         document.putContextData(RetentionConstants.RETENTION_CHECKER_LISTENER_IGNORE, true);
-        session.saveDocument(document);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void afterSave() {
         document.putContextData(VersioningService.DISABLE_AUTOMATIC_VERSIONING, null);
         document.putContextData(DublinCoreListener.DISABLE_DUBLINCORE_LISTENER, null);
         document.putContextData(NotificationConstants.DISABLE_NOTIFICATION_SERVICE, null);
@@ -133,17 +159,74 @@ public class Record {
 
     public void setRule(RetentionRule rule, CoreSession session) {
         setRuleIds(Arrays.asList(rule.getDocument().getId()));
+        setStartingPoint(rule);
         save(session);
     }
 
+    /**
+     * Sets the rule on all the records and saves them at once.
+     *
+     * @since 2023.5
+     */
+    public static void setRule(List<Record> records, RetentionRule rule, CoreSession session) {
+        String ruleId = rule.getDocument().getId();
+        records.forEach(record -> {
+            record.setRuleIds(Arrays.asList(ruleId));
+            record.setStartingPoint(rule);
+        });
+        save(records, session);
+    }
+
     /**
      * @since 2023.1
      */
     public void unsetRule(CoreSession session) {
         setRuleIds(null);
+        setStartingPoint(null, null);
         save(session);
     }
 
+    /**
+     * Returns the starting point event of the event-based rule attached to the record, denormalized at attach time.
+     *
+     * @since 2023.5
+     */
+    public String getStartingPointEvent() {
+        return (String) document.getPropertyValue(RetentionConstants.RECORD_STARTING_POINT_EVENT_PROP);
+    }
+
+    /**
+     * Returns the starting point value of the event-based rule attached to the record, denormalized at attach time.
+     *
+     * @since 2023.5
+     */
+    public String getStartingPointValue() {
+        return (String) document.getPropertyValue(RetentionConstants.RECORD_STARTING_POINT_VALUE_PROP);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void setStartingPoint(RetentionRule rule) {
+        if (rule.isEventBased()) {
+            setStartingPoint(rule.getStartingPointEvent(), rule.getStartingPointValue());
+        } else {
+            setStartingPoint(null, null);
+        }
+    }
+
+    /**
+     * Sets the starting point of the rule attached to the record, so that the records waiting for an event can be
+     * retrieved with an equality query. Does not save the document.
+     *
+     * @since 2023.5
+     */
+    public void setStartingPoint(String startingPointEvent, String startingPointValue) {
+        document.setPropertyValue(RetentionConstants.RECORD_STARTING_POINT_EVENT_PROP, startingPointEvent);
+        document.setPropertyValue(RetentionConstants.RECORD_STARTING_POINT_VALUE_PROP,
+                StringUtils.isEmpty(startingPointValue) ? null : startingPointValue);
+    }
+
     protected void setRuleIds(final List<String> ruleIds) {
         document.setPropertyValue(RetentionConstants.RECORD_RULE_IDS_PROP, (Serializable) ruleIds);
     }
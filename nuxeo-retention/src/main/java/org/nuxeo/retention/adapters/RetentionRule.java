@@ -139,10 +139,22 @@ public class RetentionRule {
     }
 
     protected Calendar getRetainUntilDateFrom(LocalDateTime datetime) {
-        LocalDateTime localDateTime = datetime.plusYears(getDurationYears())
-                                              .plusMonths(getDurationMonths())
-                                              .plusDays(getDurationDays())
-                                              .plus(getDurationMillis(), ChronoUnit.MILLIS);
+        return getRetainUntilDate(datetime, getDurationYears(), getDurationMonths(), getDurationDays(),
+                getDurationMillis());
+    }
+
+    /**
+     * Computes the retain until date of a retention of the given duration starting at the given date. Shared with
+     * {@link RetentionRuleSnapshot} so that both compute the same date.
+     *
+     * @since 2023.5
+     */
+    public static Calendar getRetainUntilDate(LocalDateTime datetime, long years, long months, long days,
+            long millis) {
+        LocalDateTime localDateTime = datetime.plusYears(years)
+                                              .plusMonths(months)
+                                              .plusDays(days)
+                                              .plus(millis, ChronoUnit.MILLIS);
         return GregorianCalendar.from(localDateTime.atZone(ZoneId.systemDefault()));
     }
 
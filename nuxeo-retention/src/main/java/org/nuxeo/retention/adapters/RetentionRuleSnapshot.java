@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.adapters;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.adapters.RetentionRule.ApplicationPolicy;
+import org.nuxeo.retention.adapters.RetentionRule.StartingPointPolicy;
+
+/**
+ * Immutable view of a {@link RetentionRule} document. It does not hold any reference to the rule document so it can be
+ * cached and shared between threads by the {@link org.nuxeo.retention.service.RetentionManager}.
+ *
+ * @since 2023.5
+ */
+public class RetentionRuleSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String id;
+
+    protected final String path;
+
+    protected final String changeToken;
+
+    protected final String applicationPolicy;
+
+    protected final StartingPointPolicy startingPointPolicy;
+
+    protected final long durationYears;
+
+    protected final long durationMonths;
+
+    protected final long durationDays;
+
+    protected final long durationMillis;
+
+    protected final String startingPointEvent;
+
+    protected final String startingPointValue;
+
+    protected final String startingPointExpression;
+
+    protected final String expression;
+
+    protected final String metadataXpath;
+
+    protected final List<String> beginActions;
+
+    protected final List<String> endActions;
+
+    protected final List<String> docTypes;
+
+    protected final boolean enabled;
+
+    protected final boolean makeFlexibleRecords;
+
+    public RetentionRuleSnapshot(RetentionRule rule) {
+        DocumentModel doc = rule.getDocument();
+        id = doc.getId();
+        path = doc.getPathAsString();
+        changeToken = doc.getChangeToken();
+        applicationPolicy = rule.getApplicationPolicy();
+        startingPointPolicy = rule.getStartingPointPolicy();
+        durationYears = rule.getDurationYears();
+        durationMonths = rule.getDurationMonths();
+        durationDays = rule.getDurationDays();
+        durationMillis = rule.getDurationMillis();
+        startingPointEvent = rule.getStartingPointEvent();
+        startingPointValue = rule.getStartingPointValue();
+        startingPointExpression = rule.getStartingPointExpression();
+        expression = rule.getExpression();
+        metadataXpath = rule.getMetadataXpath();
+        beginActions = toList(doc.getPropertyValue(RetentionConstants.BEGIN_ACTIONS_PROP));
+        endActions = toList(doc.getPropertyValue(RetentionConstants.END_ACTIONS_PROP));
+        docTypes = toList(doc.getPropertyValue(RetentionConstants.DOC_TYPES_PROP));
+        enabled = rule.isEnabled();
+        makeFlexibleRecords = rule.isMakeFlexibleRecords();
+    }
+
+    protected static List<String> toList(Serializable value) {
+        if (value instanceof Object[]) {
+            return Collections.unmodifiableList(Arrays.stream((Object[]) value)
+                                                      .map(String.class::cast)
+                                                      .collect(Collectors.toList()));
+        } else if (value instanceof Collection) {
+            @SuppressWarnings("unchecked")
+            Collection<String> values = (Collection<String>) value;
+            return Collections.unmodifiableList(new ArrayList<>(values));
+        }
+        return Collections.emptyList();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getChangeToken() {
+        return changeToken;
+    }
+
+    public String getApplicationPolicy() {
+        return applicationPolicy;
+    }
+
+    public StartingPointPolicy getStartingPointPolicy() {
+        return startingPointPolicy;
+    }
+
+    public long getDurationYears() {
+        return durationYears;
+    }
+
+    public long getDurationMonths() {
+        return durationMonths;
+    }
+
+    public long getDurationDays() {
+        return durationDays;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getStartingPointEvent() {
+        return startingPointEvent;
+    }
+
+    public String getStartingPointValue() {
+        return startingPointValue;
+    }
+
+    public String getStartingPointExpression() {
+        return startingPointExpression;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public String getMetadataXpath() {
+        return metadataXpath;
+    }
+
+    public List<String> getBeginActions() {
+        return beginActions;
+    }
+
+    public List<String> getEndActions() {
+        return endActions;
+    }
+
+    public List<String> getDocTypes() {
+        return docTypes;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isMakeFlexibleRecords() {
+        return makeFlexibleRecords;
+    }
+
+    public boolean isAuto() {
+        return ApplicationPolicy.AUTO.name().toLowerCase().equals(applicationPolicy);
+    }
+
+    public boolean isManual() {
+        return ApplicationPolicy.MANUAL.name().toLowerCase().equals(applicationPolicy);
+    }
+
+    public boolean isAfterDelay() {
+        return startingPointPolicy == StartingPointPolicy.AFTER_DELAY;
+    }
+
+    public boolean isEventBased() {
+        return startingPointPolicy == StartingPointPolicy.EVENT_BASED;
+    }
+
+    public boolean isImmediate() {
+        return startingPointPolicy == StartingPointPolicy.IMMEDIATE;
+    }
+
+    public boolean isMetadataBased() {
+        return startingPointPolicy == StartingPointPolicy.METADATA_BASED;
+    }
+
+    public boolean isDocTypeAccepted(String docType) {
+        return docTypes.isEmpty() || docTypes.contains(docType);
+    }
+
+    public Calendar getRetainUntilDateFrom(Calendar calendar) {
+        LocalDateTime datetime = LocalDateTime.ofInstant(calendar.getTime().toInstant(), ZoneId.systemDefault());
+        return getRetainUntilDateFrom(datetime);
+    }
+
+    protected Calendar getRetainUntilDateFrom(LocalDateTime datetime) {
+        return RetentionRule.getRetainUntilDate(datetime, durationYears, durationMonths, durationDays, durationMillis);
+    }
+
+    public Calendar getRetainUntilDateFromNow() {
+        return getRetainUntilDateFrom(LocalDateTime.now());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + id + "," + changeToken + ")";
+    }
+
+}
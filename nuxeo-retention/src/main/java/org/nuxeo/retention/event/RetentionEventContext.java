@@ -18,6 +18,11 @@
  */
 package org.nuxeo.retention.event;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.event.impl.UnboundEventContext;
 import org.nuxeo.retention.RetentionConstants;
@@ -44,4 +49,25 @@ public class RetentionEventContext extends UnboundEventContext {
         setProperty(RetentionConstants.INPUT_PROPERTY_KEY, input);
     }
 
+    /**
+     * Returns the inputs of the event, the single input if the event was not fired with several inputs.
+     *
+     * @since 2023.5
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getInputs() {
+        Serializable inputs = getProperty(RetentionConstants.INPUTS_PROPERTY_KEY);
+        if (inputs == null) {
+            return Collections.singletonList(getInput());
+        }
+        return (List<String>) inputs;
+    }
+
+    /**
+     * @since 2023.5
+     */
+    public void setInputs(List<String> inputs) {
+        setProperty(RetentionConstants.INPUTS_PROPERTY_KEY, new ArrayList<>(inputs));
+    }
+
 }
@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.listeners;
+
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.SYSTEM_USERNAME;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.actions.AttachRetentionRuleAction;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Listener attaching the enabled auto retention rules to the documents entering the repository. The rules accepting
+ * the document type are looked up in the in-memory index of the {@link RetentionManager}, so that the events of the
+ * other document types are filtered out before the bundle is processed. A document gets the first matching rule, the
+ * documents of the bundle being then attached by batches with the
+ * {@link org.nuxeo.retention.actions.AttachRetentionRuleAction}, which skips the documents already under retention or
+ * legal hold.
+ *
+ * @since 2023.5
+ */
+public class RetentionAutoRuleListener implements PostCommitFilteringEventListener {
+
+    private static final Logger log = LogManager.getLogger(RetentionAutoRuleListener.class);
+
+    protected static final int BATCH_SIZE = 100;
+
+    @Override
+    public boolean acceptEvent(Event event) {
+        EventContext eventCtx = event.getContext();
+        if (!(eventCtx instanceof DocumentEventContext)) {
+            return false;
+        }
+        DocumentModel doc = ((DocumentEventContext) eventCtx).getSourceDocument();
+        if (doc == null || doc.isProxy() || doc.isVersion()
+                || doc.hasFacet(RetentionConstants.RETENTION_RULE_FACET)) {
+            return false;
+        }
+        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+        if (retentionManager == null) {
+            log.trace("RetentionManager not started yet?!");
+            return false;
+        }
+        return !retentionManager.getAutoRules(doc.getType(), doc.getRepositoryName()).isEmpty();
+    }
+
+    @Override
+    public void handleEvent(EventBundle events) {
+        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+        Map<String, Map<String, List<String>>> docIdsByRuleByRepository = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (Event event : events) {
+            DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+            String repositoryName = doc.getRepositoryName();
+            if (!seen.add(repositoryName + ":" + doc.getId())) {
+                continue;
+            }
+            // the index may have been invalidated since the event was accepted
+            List<RetentionRuleSnapshot> rules = retentionManager.getAutoRules(doc.getType(), repositoryName);
+            if (rules.isEmpty()) {
+                continue;
+            }
+            log.trace("Auto rule {} matches document {}", () -> rules.get(0).getPath(), doc::getPathAsString);
+            docIdsByRuleByRepository.computeIfAbsent(repositoryName, k -> new HashMap<>())
+                                    .computeIfAbsent(rules.get(0).getId(), k -> new ArrayList<>())
+                                    .add(doc.getId());
+        }
+        BulkService bulkService = Framework.getService(BulkService.class);
+        docIdsByRuleByRepository.forEach((repositoryName, docIdsByRule) -> docIdsByRule.forEach((ruleId, docIds) -> {
+            for (int i = 0; i < docIds.size(); i += BATCH_SIZE) {
+                String query = String.format(RetentionConstants.BATCH_DOCUMENT_IDS_QUERY,
+                        docIds.subList(i, Math.min(i + BATCH_SIZE, docIds.size()))
+                              .stream()
+                              .map(NXQL::escapeString)
+                              .collect(Collectors.joining(", ")));
+                BulkCommand command = new BulkCommand.Builder(AttachRetentionRuleAction.ACTION_NAME, query,
+                        SYSTEM_USERNAME).repository(repositoryName)
+                                        .param(AttachRetentionRuleAction.PARAM_RULE_ID, ruleId)
+                                        .build();
+                String commandId = bulkService.submit(command);
+                log.debug("Submitted attachment of auto rule {} on {} documents: {}", ruleId,
+                        Math.min(BATCH_SIZE, docIds.size() - i), commandId);
+            }
+        }));
+    }
+
+}
@@ -19,24 +19,29 @@
 package org.nuxeo.retention.listeners;
 
 import static org.nuxeo.ecm.core.api.security.SecurityConstants.SYSTEM_USERNAME;
-import static org.nuxeo.ecm.core.query.sql.NXQL.ECM_UUID;
-import static org.nuxeo.retention.RetentionConstants.ACTIVE_EVENT_BASED_RETENTION_RULES_QUERY;
+import static org.nuxeo.retention.RetentionConstants.INPUTS_PROPERTY_KEY;
+import static org.nuxeo.retention.RetentionConstants.KV_STORE_NAME;
 import static org.nuxeo.retention.RetentionConstants.RECORD_RULE_IDS_PROP;
+import static org.nuxeo.retention.RetentionConstants.RECORD_STARTING_POINT_EVENT_PROP;
+import static org.nuxeo.retention.RetentionConstants.RECORD_STARTING_POINT_VALUE_PROP;
 import static org.nuxeo.retention.RetentionConstants.RULE_RECORD_DOCUMENT_QUERY;
-import static org.nuxeo.retention.RetentionConstants.STARTING_POINT_EVENT_PROP;
 import static org.nuxeo.retention.actions.EvalInputEventBasedRuleAction.ACTION_EVENT_ID_PARAM;
+import static org.nuxeo.retention.actions.EvalInputEventBasedRuleAction.ACTION_EVENT_INPUTS_PARAM;
 import static org.nuxeo.retention.actions.EvalInputEventBasedRuleAction.ACTION_EVENT_INPUT_PARAM;
 
-import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.nuxeo.ecm.core.api.CoreInstance;
-import org.nuxeo.ecm.core.api.CoreSession;
-import org.nuxeo.ecm.core.api.PartialList;
+import org.nuxeo.common.utils.DurationUtils;
 import org.nuxeo.ecm.core.bulk.BulkService;
 import org.nuxeo.ecm.core.bulk.message.BulkCommand;
 import org.nuxeo.ecm.core.event.Event;
@@ -45,13 +50,22 @@ import org.nuxeo.ecm.core.event.EventListener;
 import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.core.repository.RepositoryService;
 import org.nuxeo.retention.actions.EvalInputEventBasedRuleAction;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.retention.event.RetentionEventContext;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionMetrics;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+import io.dropwizard.metrics5.MetricRegistry;
 
 /**
  * Listener processing events with a {@link org.nuxeo.retention.event.RetentionEventContext}). The listener schedules a
- * {@link org.nuxeo.retention.actions.EvalInputEventBasedRuleAction} on a query retrieving all the records attached to
- * all the retention rules targeting the listened event.
+ * {@link org.nuxeo.retention.actions.EvalInputEventBasedRuleAction} on a query retrieving all the records whose
+ * retention rule targets the listened event. Events that no rule can match are dropped before any command is submitted,
+ * the number of dropped events being published per stage. Identical events fired within the configurable
+ * {@link #COALESCING_WINDOW_PROPERTY} window are coalesced into the command of the first one.
  *
  * @since 11.1
  */
@@ -59,40 +73,223 @@ public class RetentionBusinessEventListener implements EventListener {
 
     private static final Logger log = LogManager.getLogger(RetentionBusinessEventListener.class);
 
+    /**
+     * @since 2023.5
+     */
+    public static final String NO_RULE_STAGE = "noRule";
+
+    /**
+     * @since 2023.5
+     */
+    public static final String STARTING_POINT_VALUE_STAGE = "startingPointValue";
+
+    /**
+     * @since 2023.5
+     */
+    public static final String STARTING_POINT_EXPRESSION_STAGE = "startingPointExpression";
+
+    /**
+     * @since 2023.5
+     */
+    public static final String COALESCED_STAGE = "coalesced";
+
+    /**
+     * Window during which identical events, same name and inputs, are coalesced into a single bulk command. Disabled
+     * by default.
+     * <p>
+     * Coalescing is lossy: an identical event fired within the window is dropped even if records waiting for it were
+     * attached after the command of the first event was submitted, such records keep an indeterminate retention until
+     * the event is fired again after the window. The window must therefore stay short compared to the pace at which
+     * records are attached.
+     *
+     * @since 2023.5
+     */
+    public static final String COALESCING_WINDOW_PROPERTY = "nuxeo.retention.event.coalescing.window";
+
+    protected static final String COALESCING_KEY_PREFIX = "coalescing:";
+
+    protected final MetricRegistry registry = RetentionMetrics.getRegistry();
+
     @Override
     public void handleEvent(Event event) {
         EventContext evtCtx = event.getContext();
         if (evtCtx instanceof RetentionEventContext) {
             String eventName = event.getName();
             log.trace("Proceeding event {}", eventName);
-            String eventInput = ((RetentionEventContext) evtCtx).getInput();
+            RetentionEventContext retentionEvtCtx = (RetentionEventContext) evtCtx;
+            boolean multiInput = retentionEvtCtx.getProperty(INPUTS_PROPERTY_KEY) != null;
+            List<String> eventInputs = retentionEvtCtx.getInputs();
             BulkService bulkService = Framework.getService(BulkService.class);
             RepositoryService repositoryService = Framework.getService(RepositoryService.class);
             for (String repositoryName : repositoryService.getRepositoryNames()) {
-                StringBuilder query = new StringBuilder(RULE_RECORD_DOCUMENT_QUERY);
-                var rulesIds = getEventBasedRuleIdsForEvent(eventName, repositoryName);
-                query.append(" AND ") //
-                     .append(RECORD_RULE_IDS_PROP) //
-                     .append(String.format(" IN ('%s')", rulesIds.stream().collect(Collectors.joining("', '"))));
-                BulkCommand command = new BulkCommand.Builder(EvalInputEventBasedRuleAction.ACTION_NAME,
-                        query.toString(), SYSTEM_USERNAME).param(ACTION_EVENT_ID_PARAM, eventName)
-                                                          .param(ACTION_EVENT_INPUT_PARAM, eventInput)
-                                                          .repository(repositoryName)
-                                                          .build();
-                bulkService.submit(command);
+                List<RetentionRuleSnapshot> rules = getMatchingRules(eventName, eventInputs, repositoryName);
+                if (rules.isEmpty()) {
+                    continue;
+                }
+                if (isCoalesced(eventName, eventInputs, repositoryName)) {
+                    dropEvent(eventName, repositoryName, COALESCED_STAGE);
+                    continue;
+                }
+                String query = getRecordQuery(eventName, eventInputs, rules,
+                        Framework.getService(RetentionManager.class).hasRecordsWithoutStartingPoint(repositoryName));
+                BulkCommand.Builder builder = new BulkCommand.Builder(EvalInputEventBasedRuleAction.ACTION_NAME,
+                        query, SYSTEM_USERNAME).param(ACTION_EVENT_ID_PARAM, eventName).repository(repositoryName);
+                if (multiInput) {
+                    builder.param(ACTION_EVENT_INPUTS_PARAM, new ArrayList<>(eventInputs));
+                } else {
+                    builder.param(ACTION_EVENT_INPUT_PARAM, eventInputs.get(0));
+                }
+                bulkService.submit(builder.build());
+                openCoalescingWindow(eventName, eventInputs, repositoryName);
             }
         }
     }
 
-    protected List<String> getEventBasedRuleIdsForEvent(String eventName, String repository) {
-        StringBuilder query = new StringBuilder(ACTIVE_EVENT_BASED_RETENTION_RULES_QUERY);
-        query.append(" AND ") //
-             .append(STARTING_POINT_EVENT_PROP)
-             .append(" = ")
+    /**
+     * Returns the enabled event-based rules that can match the event, without looking at any record: the rules whose
+     * starting point value differs from all the event inputs, or whose starting point expression only depends on the
+     * event input and evaluates to false for all of them, are filtered out. When no rule remains, the stage which
+     * dropped the event is counted.
+     *
+     * @since 2023.5
+     */
+    protected List<RetentionRuleSnapshot> getMatchingRules(String eventName, List<String> eventInputs,
+            String repositoryName) {
+        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+        List<RetentionRuleSnapshot> rules = retentionManager.getEventBasedRules(eventName, repositoryName);
+        if (rules.isEmpty()) {
+            return dropEvent(eventName, repositoryName, NO_RULE_STAGE);
+        }
+        Set<String> inputs = new HashSet<>(eventInputs);
+        rules = rules.stream()
+                     .filter(rule -> StringUtils.isEmpty(rule.getStartingPointValue())
+                             || inputs.contains(rule.getStartingPointValue()))
+                     .collect(Collectors.toList());
+        if (rules.isEmpty()) {
+            return dropEvent(eventName, repositoryName, STARTING_POINT_VALUE_STAGE);
+        }
+        rules = rules.stream()
+                     .filter(rule -> StringUtils.isNotEmpty(rule.getStartingPointValue())
+                             || inputs.stream()
+                                      .anyMatch(input -> !Boolean.FALSE.equals(
+                                              retentionManager.evaluateConditionExpression(
+                                                      rule.getStartingPointExpression(), input))))
+                     .collect(Collectors.toList());
+        if (rules.isEmpty()) {
+            return dropEvent(eventName, repositoryName, STARTING_POINT_EXPRESSION_STAGE);
+        }
+        return rules;
+    }
+
+    /**
+     * Checks whether an identical event has already been submitted within the coalescing window, on any node of the
+     * cluster.
+     *
+     * @since 2023.5
+     */
+    protected boolean isCoalesced(String eventName, List<String> eventInputs, String repositoryName) {
+        if (getCoalescingWindow().isZero()) {
+            return false;
+        }
+        KeyValueStore store = Framework.getService(KeyValueService.class).getKeyValueStore(KV_STORE_NAME);
+        return store.getString(getCoalescingKey(eventName, eventInputs, repositoryName)) != null;
+    }
+
+    /**
+     * Opens the coalescing window of an event once its command has been submitted, so that an event whose submission
+     * failed is never coalesced. Concurrent identical events may both be submitted, which is harmless.
+     *
+     * @since 2023.5
+     */
+    protected void openCoalescingWindow(String eventName, List<String> eventInputs, String repositoryName) {
+        Duration window = getCoalescingWindow();
+        if (window.isZero()) {
+            return;
+        }
+        // the key store ttl is in seconds
+        long ttl = Math.max(1, (window.toMillis() + 999) / 1000);
+        KeyValueStore store = Framework.getService(KeyValueService.class).getKeyValueStore(KV_STORE_NAME);
+        store.put(getCoalescingKey(eventName, eventInputs, repositoryName), String.valueOf(System.currentTimeMillis()),
+                ttl);
+    }
+
+    protected Duration getCoalescingWindow() {
+        return DurationUtils.parsePositive(Framework.getProperty(COALESCING_WINDOW_PROPERTY), Duration.ZERO);
+    }
+
+    /**
+     * Returns the coalescing key of an event, the inputs of a multi-input event being sorted and hashed to keep the
+     * key bounded whatever their number.
+     *
+     * @since 2023.5
+     */
+    protected String getCoalescingKey(String eventName, List<String> eventInputs, String repositoryName) {
+        String inputs;
+        if (eventInputs.size() == 1) {
+            inputs = StringUtils.defaultString(eventInputs.get(0));
+        } else {
+            inputs = DigestUtils.sha256Hex(eventInputs.stream()
+                                                      .map(StringUtils::defaultString)
+                                                      .distinct()
+                                                      .sorted()
+                                                      .collect(Collectors.joining("\n")));
+        }
+        return COALESCING_KEY_PREFIX + repositoryName + ":" + eventName + ":" + inputs;
+    }
+
+    protected List<RetentionRuleSnapshot> dropEvent(String eventName, String repositoryName, String stage) {
+        log.debug("No event-based rule can match event {} in repository {}, dropped at stage {}", eventName,
+                repositoryName, stage);
+        registry.counter(RetentionMetrics.DROPPED_EVENTS_COUNTER.tagged("stage", stage)).inc();
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the query selecting the records waiting for the event. It relies on the starting point denormalized on
+     * the records, the starting point values of the rules being also matched when all the rules listening to the event
+     * have one. The records without starting point, attached before it was denormalized and not backfilled yet, are
+     * selected by their rule ids.
+     *
+     * @since 2023.5
+     */
+    protected String getRecordQuery(String eventName, List<String> eventInputs, List<RetentionRuleSnapshot> rules,
+            boolean withoutStartingPoint) {
+        StringBuilder query = new StringBuilder(RULE_RECORD_DOCUMENT_QUERY);
+        query.append(" AND ");
+        if (withoutStartingPoint) {
+            query.append("((");
+        }
+        query.append(RECORD_STARTING_POINT_EVENT_PROP) //
+             .append(" = ") //
              .append(NXQL.escapeString(eventName));
-        CoreSession session = CoreInstance.getCoreSession(repository);
-        PartialList<Map<String, Serializable>> results = session.queryProjection(query.toString(), 0, 0);
-        return results.stream().map(m -> (String) m.get(ECM_UUID)).collect(Collectors.toList());
+        if (rules.stream().allMatch(rule -> StringUtils.isNotEmpty(rule.getStartingPointValue()))) {
+            // the remaining rules have a value matching one of the inputs, the list is bounded by the rules
+            List<String> values = rules.stream()
+                                       .map(RetentionRuleSnapshot::getStartingPointValue)
+                                       .distinct()
+                                       .map(NXQL::escapeString)
+                                       .collect(Collectors.toList());
+            query.append(" AND ") //
+                 .append(RECORD_STARTING_POINT_VALUE_PROP);
+            if (values.size() == 1) {
+                query.append(" = ").append(values.get(0));
+            } else {
+                query.append(" IN (").append(String.join(", ", values)).append(")");
+            }
+        }
+        if (withoutStartingPoint) {
+            query.append(") OR (") //
+                 .append(RECORD_STARTING_POINT_EVENT_PROP) //
+                 .append(" IS NULL AND ") //
+                 .append(RECORD_RULE_IDS_PROP) //
+                 .append(" IN (") //
+                 .append(rules.stream()
+                              .map(RetentionRuleSnapshot::getId)
+                              .map(NXQL::escapeString)
+                              .collect(Collectors.joining(", "))) //
+                 .append(")))");
+        }
+        return query.toString();
     }
 
 }
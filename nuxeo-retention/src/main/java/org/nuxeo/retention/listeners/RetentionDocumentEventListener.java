@@ -18,29 +18,40 @@
  */
 package org.nuxeo.retention.listeners;
 
+import static org.nuxeo.retention.RetentionConstants.BATCH_RECORD_RULES_QUERY;
+import static org.nuxeo.retention.RetentionConstants.RECORD_RULE_IDS_PROP;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventBundle;
 import org.nuxeo.ecm.core.event.EventContext;
 import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.retention.RetentionConstants;
-import org.nuxeo.retention.adapters.Record;
-import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.retention.service.RetentionManager;
 import org.nuxeo.runtime.api.Framework;
 
 /**
- * Listener processing events with a {@link org.nuxeo.ecm.core.event.impl.DocumentEventContext}). If the targeted
- * document is a record and has an attached event-based, the rule is then evaluated to check if the retention expiration
- * date has to be recomputed.
+ * Listener processing events with a {@link org.nuxeo.ecm.core.event.impl.DocumentEventContext}). Only the ids of the
+ * targeted documents are collected, the records having an attached event-based rule and whose retention is still
+ * indeterminate or expired are then selected with a projection query over the bundle, and their rule is evaluated to
+ * check if the retention expiration date has to be recomputed. No document is loaded by the listener.
  *
  * @since 11.1
  */
@@ -48,6 +59,15 @@ public class RetentionDocumentEventListener implements PostCommitFilteringEventL
 
     private static final Logger log = LogManager.getLogger(RetentionDocumentEventListener.class);
 
+    /**
+     * @since 2023.5
+     */
+    protected static final int BATCH_SIZE = 100;
+
+    protected static final String RULE_ID_COLUMN = RECORD_RULE_IDS_PROP + "/*1";
+
+    protected static final String RETAIN_UNTIL_COLUMN = "ecm:retainUntil";
+
     @Override
     public boolean acceptEvent(Event event) {
         EventContext eventCtx = event.getContext();
@@ -59,13 +79,26 @@ public class RetentionDocumentEventListener implements PostCommitFilteringEventL
             log.trace("RetentionManager not started yet?!");
             return false;
         }
-        return retentionManager.getAcceptedEvents().contains(event.getName());
+        return retentionManager.getAcceptedEventSet().contains(event.getName());
     }
 
     @Override
     public void handleEvent(EventBundle events) {
         RetentionManager retentionManager = Framework.getService(RetentionManager.class);
-        Map<String, Set<String>> docsToCheckAndEvents = new HashMap<>();
+        getDocsToCheckAndEventsByRepository(events).forEach((repositoryName, docsToCheckAndEvents) -> {
+            Set<String> eligibleIds = getEligibleRecordIds(repositoryName, docsToCheckAndEvents.keySet());
+            docsToCheckAndEvents.keySet().retainAll(eligibleIds);
+            retentionManager.evalRules(repositoryName, docsToCheckAndEvents);
+        });
+    }
+
+    /**
+     * Returns the events of the bundle by targeted document id, grouped by repository.
+     *
+     * @since 2023.5
+     */
+    protected Map<String, Map<String, Set<String>>> getDocsToCheckAndEventsByRepository(EventBundle events) {
+        Map<String, Map<String, Set<String>>> docsToCheckAndEventsByRepository = new HashMap<>();
         Map<String, Boolean> documentModifiedIgnored = new HashMap<>();
         for (Event event : events) {
             log.trace("Processing event {} ", event::getName);
@@ -80,32 +113,54 @@ public class RetentionDocumentEventListener implements PostCommitFilteringEventL
                 documentModifiedIgnored.put(docId, true);
                 continue;
             }
-            if (!doc.hasFacet(RetentionConstants.RECORD_FACET)) {
-                log.trace("Document {} is not a record", doc::getPathAsString);
-                continue;
-            }
-            Record record = doc.getAdapter(Record.class);
-            RetentionRule rule = record.getRule(docEventCtx.getCoreSession());
-            if (rule == null) {
-                log.trace("Record {} does not have rule", doc::getPathAsString);
-                continue;
-            }
-            if (!rule.isEventBased()) {
-                log.trace("Rule {} is not event-based", () -> rule.getDocument().getPathAsString());
-                continue;
-            }
-            if (record.isRetentionExpired()) {
-                log.trace("Record {} already expired", doc::getPathAsString);
-                retentionManager.proceedRetentionExpired(record, event.getContext().getCoreSession());
-                // XXX should we check if the record should be under retention again?
-                continue;
-            }
-            docsToCheckAndEvents.computeIfAbsent(docId, k -> new HashSet<>()).add(event.getName());
-        }
-        if (!docsToCheckAndEvents.isEmpty()) {
-            retentionManager.evalRules(docsToCheckAndEvents);
+            docsToCheckAndEventsByRepository.computeIfAbsent(doc.getRepositoryName(), k -> new HashMap<>())
+                                             .computeIfAbsent(docId, k -> new HashSet<>())
+                                             .add(event.getName());
         }
+        return docsToCheckAndEventsByRepository;
+    }
 
+    /**
+     * Returns the ids of the records having an enabled event-based rule and whose retention is indeterminate or
+     * expired, the expired records being evaluated to proceed their expiration. The rules and retention dates are
+     * retrieved by projection and the rule policies are resolved from the rule snapshots cached by the
+     * {@link RetentionManager}.
+     *
+     * @since 2023.5
+     */
+    protected Set<String> getEligibleRecordIds(String repositoryName, Set<String> docIds) {
+        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+        CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+        Calendar now = Calendar.getInstance();
+        Set<String> eligibleIds = new HashSet<>();
+        List<String> ids = new ArrayList<>(docIds);
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            String idList = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()))
+                               .stream()
+                               .map(NXQL::escapeString)
+                               .collect(Collectors.joining(", "));
+            for (Map<String, Serializable> row : session.queryProjection(String.format(BATCH_RECORD_RULES_QUERY,
+                    idList), 0, 0)) {
+                String docId = (String) row.get(NXQL.ECM_UUID);
+                String ruleId = (String) row.get(RULE_ID_COLUMN);
+                if (ruleId == null || eligibleIds.contains(docId)) {
+                    continue;
+                }
+                Calendar retainUntil = (Calendar) row.get(RETAIN_UNTIL_COLUMN);
+                if (retainUntil != null && retainUntil.after(now)
+                        && retainUntil.compareTo(CoreSession.RETAIN_UNTIL_INDETERMINATE) != 0) {
+                    log.trace("Record {} retention is already running", docId);
+                    continue;
+                }
+                RetentionRuleSnapshot rule = retentionManager.getRuleSnapshot(ruleId, session);
+                if (rule == null || !rule.isEnabled() || !rule.isEventBased()) {
+                    log.trace("Rule {} of record {} is not an enabled event-based rule", ruleId, docId);
+                    continue;
+                }
+                eligibleIds.add(docId);
+            }
+        }
+        return eligibleIds;
     }
 
 }
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.listeners;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.retention.service.RetentionExpirationScheduler;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Listener of the {@link #EVENT_NAME} scheduled event, ticking the {@link RetentionExpirationScheduler} when it is
+ * enabled.
+ *
+ * @since 2023.5
+ */
+public class RetentionExpirationSchedulerListener implements EventListener {
+
+    public static final String EVENT_NAME = "expireRetentionRecords";
+
+    @Override
+    public void handleEvent(Event event) {
+        RetentionExpirationScheduler scheduler = Framework.getService(RetentionExpirationScheduler.class);
+        if (scheduler != null) {
+            scheduler.tick(System.currentTimeMillis());
+        }
+    }
+
+}
@@ -18,54 +18,77 @@
  */
 package org.nuxeo.retention.listeners;
 
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.SYSTEM_USERNAME;
+
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.event.CoreEventConstants;
 import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
 import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
 import org.nuxeo.ecm.core.event.EventContext;
-import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.retention.RetentionConstants;
-import org.nuxeo.retention.adapters.Record;
-import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.actions.ProceedRetentionExpiredAction;
 import org.nuxeo.runtime.api.Framework;
 
 /**
- * Listens the {@link org.nuxeo.ecm.core.api.event.DocumentEventTypes#RETENTION_EXPIRED} event on a document to proceed
- * potential post-actions.
+ * Listens the {@link org.nuxeo.ecm.core.api.event.DocumentEventTypes#RETENTION_EXPIRED} event on documents to proceed
+ * potential post-actions. The expired records of the bundle are handed over to the
+ * {@link ProceedRetentionExpiredAction} bulk action, one command being submitted per repository.
+ * <p>
+ * Since 2023.5, the end actions of the rules are therefore executed asynchronously by that command, and no longer by
+ * this listener: they are not done yet when the listener returns, and a failing end action is reported by the command
+ * status instead of the listener.
  *
  * @since 11.1
  */
-public class RetentionExpiredListener implements EventListener {
+public class RetentionExpiredListener implements PostCommitEventListener {
 
     private static final Logger log = LogManager.getLogger(RetentionExpiredListener.class);
 
     @Override
-    public void handleEvent(Event event) {
-        if (!event.getName().equals(DocumentEventTypes.RETENTION_EXPIRED)) {
-            return;
-        }
-        EventContext ctx = event.getContext();
-        if (!(ctx instanceof DocumentEventContext)) {
-            return;
-        }
-        DocumentEventContext docCxt = (DocumentEventContext) event.getContext();
-        DocumentModel doc = docCxt.getSourceDocument();
-        if (!doc.hasFacet(RetentionConstants.RECORD_FACET)) {
-            return;
+    public void handleEvent(EventBundle events) {
+        Map<String, HashMap<String, String>> retainUntilsByRepository = new HashMap<>();
+        for (Event event : events) {
+            if (!event.getName().equals(DocumentEventTypes.RETENTION_EXPIRED)) {
+                continue;
+            }
+            EventContext ctx = event.getContext();
+            if (!(ctx instanceof DocumentEventContext)) {
+                continue;
+            }
+            DocumentEventContext docCxt = (DocumentEventContext) ctx;
+            DocumentModel doc = docCxt.getSourceDocument();
+            if (!doc.hasFacet(RetentionConstants.RECORD_FACET)) {
+                continue;
+            }
+            log.debug("Retention expired on {}", doc::getPathAsString);
+            Calendar retainUntil = (Calendar) docCxt.getProperty(CoreEventConstants.RETAIN_UNTIL);
+            retainUntilsByRepository.computeIfAbsent(doc.getRepositoryName(), k -> new HashMap<>())
+                                    .put(doc.getId(),
+                                            retainUntil == null ? null : retainUntil.toInstant().toString());
         }
-        log.debug("Retention expired on {}", doc::getPathAsString);
-        Record record = doc.getAdapter(Record.class);
-        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
-        CoreSession session = ctx.getCoreSession();
-        record.saveRetainUntil((Calendar) docCxt.getProperty(CoreEventConstants.RETAIN_UNTIL));
-        retentionManager.proceedRetentionExpired(record, session);
-        session.saveDocument(doc);
+        BulkService bulkService = Framework.getService(BulkService.class);
+        retainUntilsByRepository.forEach((repositoryName, retainUntils) -> {
+            String query = String.format(RetentionConstants.BATCH_DOCUMENT_IDS_QUERY,
+                    retainUntils.keySet().stream().map(NXQL::escapeString).collect(Collectors.joining(", ")));
+            BulkCommand command = new BulkCommand.Builder(ProceedRetentionExpiredAction.ACTION_NAME, query,
+                    SYSTEM_USERNAME).repository(repositoryName)
+                                    .param(ProceedRetentionExpiredAction.PARAM_RETAIN_UNTIL, retainUntils)
+                                    .build();
+            bulkService.submit(command);
+        });
     }
 
 }
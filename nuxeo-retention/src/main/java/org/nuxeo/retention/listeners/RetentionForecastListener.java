@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.listeners;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.CoreEventConstants;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Listener feeding the retain until counters of the {@link org.nuxeo.retention.service.RetentionStatistics}, from which
+ * the {@link org.nuxeo.retention.service.RetentionForecast} is derived, with the retention changes of the documents,
+ * whether they are made by the {@link RetentionManager} or directly on the session. Each change moves the document from
+ * the counter of its previous retain until date, read before the change, to the counter of the new one. A removed
+ * document leaves its counter, an unset retention is counted by the {@link RetentionManager}.
+ *
+ * @since 2023.5
+ */
+public class RetentionForecastListener implements EventListener {
+
+    protected static final Set<String> RETAINED_EVENTS = Set.of(DocumentEventTypes.BEFORE_SET_RETENTION,
+            DocumentEventTypes.BEFORE_EXTEND_RETENTION);
+
+    @Override
+    public void handleEvent(Event event) {
+        EventContext ctx = event.getContext();
+        if (!(ctx instanceof DocumentEventContext)) {
+            return;
+        }
+        DocumentEventContext docCtx = (DocumentEventContext) ctx;
+        DocumentModel doc = docCtx.getSourceDocument();
+        if (DocumentEventTypes.ABOUT_TO_REMOVE.equals(event.getName()) && !doc.isRecord()) {
+            return;
+        }
+        // the document is removed otherwise
+        Calendar previous = doc.getRetainUntil();
+        Calendar retainUntil = null;
+        if (RETAINED_EVENTS.contains(event.getName())) {
+            retainUntil = (Calendar) docCtx.getProperty(CoreEventConstants.RETAIN_UNTIL);
+            if (retainUntil == null) {
+                return;
+            }
+        } else if (DocumentEventTypes.RETENTION_EXPIRED.equals(event.getName())) {
+            previous = (Calendar) docCtx.getProperty(CoreEventConstants.RETAIN_UNTIL);
+        }
+        List<String> ruleIds = doc.hasFacet(RetentionConstants.RECORD_FACET)
+                ? doc.getAdapter(Record.class).getRuleIds()
+                : Collections.emptyList();
+        Framework.getService(RetentionManager.class)
+                 .getStatistics()
+                 .updateRetainUntil(doc.getRepositoryName(), previous, retainUntil, ruleIds);
+    }
+
+}
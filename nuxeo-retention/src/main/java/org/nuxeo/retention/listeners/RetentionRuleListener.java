@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.listeners;
+
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Synchronous listener invalidating the state cached by the {@link RetentionManager} when a retention rule document is
+ * created, modified, trashed or removed. When the starting point of a rule is modified, the starting point denormalized
+ * on its records is updated.
+ *
+ * @since 2023.5
+ */
+public class RetentionRuleListener implements EventListener {
+
+    protected static final List<String> STARTING_POINT_PROPERTIES = List.of(
+            RetentionConstants.STARTING_POINT_POLICY_PROP, RetentionConstants.STARTING_POINT_EVENT_PROP,
+            RetentionConstants.STARTING_POINT_VALUE_PROP);
+
+    @Override
+    public void handleEvent(Event event) {
+        EventContext ctx = event.getContext();
+        if (!(ctx instanceof DocumentEventContext)) {
+            return;
+        }
+        DocumentModel doc = ((DocumentEventContext) ctx).getSourceDocument();
+        if (doc == null || !doc.hasFacet(RetentionConstants.RETENTION_RULE_FACET)) {
+            return;
+        }
+        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+        if (DocumentEventTypes.BEFORE_DOC_UPDATE.equals(event.getName())) {
+            // records carry the starting point of their rule, follow its modifications
+            if (STARTING_POINT_PROPERTIES.stream().anyMatch(xpath -> doc.getProperty(xpath).isDirty())) {
+                retentionManager.updateRecordStartingPoints(doc.getId(), doc.getRepositoryName());
+            }
+            return;
+        }
+        retentionManager.invalidateRule(doc.getId());
+    }
+
+}
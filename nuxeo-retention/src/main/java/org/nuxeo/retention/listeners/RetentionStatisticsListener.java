@@ -0,0 +1,46 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.listeners;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.repository.RepositoryService;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Listener of the {@link #EVENT_NAME} scheduled event, submitting the reconciliation of the retention statistics of
+ * each repository.
+ *
+ * @since 2023.5
+ */
+public class RetentionStatisticsListener implements EventListener {
+
+    public static final String EVENT_NAME = "reconcileRetentionStatistics";
+
+    @Override
+    public void handleEvent(Event event) {
+        RetentionManager retentionManager = Framework.getService(RetentionManager.class);
+        RepositoryService repositoryService = Framework.getService(RepositoryService.class);
+        for (String repositoryName : repositoryService.getRepositoryNames()) {
+            retentionManager.reconcileStatistics(repositoryName);
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.util.StringList;
 import org.nuxeo.retention.RetentionConstants;
 import org.nuxeo.retention.service.RetentionManager;
 
@@ -46,8 +47,18 @@ public class FireRetentionEvent {
     @Param(name = "audit", required = false)
     protected boolean audit = true;
 
+    /**
+     * @since 2023.5
+     */
+    @Param(name = "inputs", required = false, description = "Optional list of inputs, the event is fired once for all of them instead of the operation input")
+    protected StringList inputs;
+
     @OperationMethod
     public void run() {
+        if (inputs != null) {
+            retentionManager.fireRetentionEvent(name, inputs, audit, ctx.getCoreSession());
+            return;
+        }
         retentionManager.fireRetentionEvent(name, ctx.getInput() instanceof String ? (String) ctx.getInput() : null,
                 audit, ctx.getCoreSession());
     }
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.operations;
+
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.service.RetentionForecast;
+import org.nuxeo.retention.service.RetentionManager;
+
+/**
+ * @since 2023.5
+ */
+@Operation(id = GetExpirationForecast.ID, category = RetentionConstants.RETENTION_CATEGORY, label = "Get Retention Expiration Forecast", description = "Return as JSON the number of documents whose retention expires each day from today, by rule. The forecast is maintained incrementally and does not scan the repository.")
+public class GetExpirationForecast {
+
+    public static final String ID = "Retention.GetExpirationForecast";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected RetentionManager retentionManager;
+
+    @Param(name = "days", required = false, description = "Number of days of the forecast, 365 by default")
+    protected int days = RetentionForecast.DEFAULT_DAYS;
+
+    @Param(name = "rule", required = false, description = "Optional id of the rule whose expirations are forecast")
+    protected String ruleId;
+
+    @OperationMethod
+    public Blob run() throws IOException {
+        NuxeoPrincipal principal = session.getPrincipal();
+        if (!principal.isAdministrator() && !principal.isMemberOf(RetentionConstants.RECORD_MANAGER_GROUP_NAME)) {
+            throw new NuxeoException("User is not authorized to read the expiration forecast", SC_FORBIDDEN);
+        }
+        if (days <= 0) {
+            throw new NuxeoException("Number of days must be positive: " + days, SC_BAD_REQUEST);
+        }
+        return Blobs.createJSONBlobFromValue(
+                retentionManager.getForecast().get(session.getRepositoryName(), LocalDate.now(), days, ruleId));
+    }
+
+}
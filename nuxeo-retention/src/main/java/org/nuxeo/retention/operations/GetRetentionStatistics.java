@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.operations;
+
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+
+import java.io.IOException;
+
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.service.RetentionManager;
+
+/**
+ * @since 2023.5
+ */
+@Operation(id = GetRetentionStatistics.ID, category = RetentionConstants.RETENTION_CATEGORY, label = "Get Retention Statistics", description = "Return the retention statistics of the repository as JSON: the records by rule, the legal holds, the indeterminate retentions and the retentions expiring by month. The statistics are maintained incrementally and do not query the repository. If reconcile is true, submits their recomputation and returns the bulk command id instead.")
+public class GetRetentionStatistics {
+
+    public static final String ID = "Retention.GetStatistics";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected RetentionManager retentionManager;
+
+    @Param(name = "reconcile", required = false, description = "If true, recompute the statistics from the repository")
+    protected boolean reconcile;
+
+    @OperationMethod
+    public Blob run() throws IOException {
+        NuxeoPrincipal principal = session.getPrincipal();
+        if (!principal.isAdministrator() && !principal.isMemberOf(RetentionConstants.RECORD_MANAGER_GROUP_NAME)) {
+            throw new NuxeoException("User is not authorized to read retention statistics", SC_FORBIDDEN);
+        }
+        String repositoryName = session.getRepositoryName();
+        if (reconcile) {
+            return Blobs.createBlob(retentionManager.reconcileStatistics(repositoryName));
+        }
+        return Blobs.createJSONBlobFromValue(retentionManager.getStatistics().get(repositoryName));
+    }
+
+}
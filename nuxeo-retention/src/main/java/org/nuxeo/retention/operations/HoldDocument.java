@@ -18,6 +18,8 @@
  */
 package org.nuxeo.retention.operations;
 
+import java.util.List;
+
 import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
@@ -27,6 +29,8 @@ import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionStatistics;
 
 /**
  * @since 11.1
@@ -39,14 +43,36 @@ public class HoldDocument {
     @Context
     protected CoreSession session;
 
+    @Context
+    protected RetentionManager retentionManager;
+
     @Param(name = "description", required = false, description = "Optional description of the hold")
     protected String description;
 
+    /**
+     * @since 2023.5
+     */
+    @Param(name = "caseId", required = false, description = "Optional legal hold case the document is added to")
+    protected String caseId;
+
     @OperationMethod(collector = DocumentModelCollector.class)
     public DocumentModel run(DocumentRef doc) {
+        boolean held = session.hasLegalHold(doc);
         session.makeRecord(doc);
         session.setLegalHold(doc, true, description);
-        return session.getDocument(doc);
+        if (!held) {
+            retentionManager.getStatistics()
+                            .update(session.getRepositoryName(), RetentionStatistics.LEGAL_HOLDS, 1);
+        }
+        DocumentModel document = session.getDocument(doc);
+        List<String> heldIds = held ? List.of(document.getId()) : List.of();
+        if (caseId != null) {
+            retentionManager.addToLegalHoldCase(caseId, List.of(document.getId()), heldIds,
+                    session.getRepositoryName());
+        } else {
+            retentionManager.addToLegalHoldWithoutCase(heldIds, session.getRepositoryName());
+        }
+        return document;
     }
 
     @OperationMethod(collector = DocumentModelCollector.class)
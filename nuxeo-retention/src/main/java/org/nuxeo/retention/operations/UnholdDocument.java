@@ -22,10 +22,13 @@ import org.nuxeo.ecm.automation.core.Constants;
 import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
 import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.automation.core.collectors.DocumentModelCollector;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionStatistics;
 
 /**
  * @since 11.1
@@ -38,9 +41,31 @@ public class UnholdDocument {
     @Context
     protected CoreSession session;
 
+    @Context
+    protected RetentionManager retentionManager;
+
+    /**
+     * @since 2023.5
+     */
+    @Param(name = "caseId", required = false, description = "Optional legal hold case the document is released from, the legal hold is removed only if the document is not under another case")
+    protected String caseId;
+
     @OperationMethod(collector = DocumentModelCollector.class)
     public DocumentModel run(DocumentRef doc) {
-        session.setLegalHold(doc, false, null);
+        String docId = session.getDocument(doc).getId();
+        String repositoryName = session.getRepositoryName();
+        boolean held = session.hasLegalHold(doc);
+        if (caseId == null) {
+            session.setLegalHold(doc, false, null);
+            retentionManager.removeFromLegalHoldCases(docId, repositoryName);
+        } else if (retentionManager.removeFromLegalHoldCase(caseId, docId, repositoryName)) {
+            session.setLegalHold(doc, false, null);
+        } else {
+            held = false;
+        }
+        if (held) {
+            retentionManager.getStatistics().update(repositoryName, RetentionStatistics.LEGAL_HOLDS, -1);
+        }
         return session.getDocument(doc);
     }
 
@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.operations;
+
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.service.RetentionManager;
+
+/**
+ * @since 2023.5
+ */
+@Operation(id = UpdateRecordStartingPoints.ID, category = RetentionConstants.RETENTION_CATEGORY, label = "Update Records Starting Point", description = "Backfill the starting point event and value on the records waiting for an event. Can be run again to resume an interrupted backfill. Returns the bulk command id.")
+public class UpdateRecordStartingPoints {
+
+    public static final String ID = "Retention.UpdateRecordStartingPoints";
+
+    @Context
+    protected CoreSession session;
+
+    @Context
+    protected RetentionManager retentionManager;
+
+    @OperationMethod
+    public String run() {
+        if (!session.getPrincipal().isAdministrator()) {
+            throw new NuxeoException("User is not authorized to update records", SC_FORBIDDEN);
+        }
+        return retentionManager.updateRecordStartingPoints(null, session.getRepositoryName());
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.kv.KeyValueStoreProvider;
+
+/**
+ * Membership index of the legal hold cases, stored in a {@link KeyValueStore}.
+ * <p>
+ * Each membership is stored under its own key prefixed by the case id, so that the documents of a case can be streamed
+ * without any repository query. The cases of a document are also stored under a document key, so that a document under
+ * several cases is only released when its last case is released. A document of a case which is also held outside of
+ * any case, before joining its first case or afterwards, is marked as such among its cases so that releasing its cases
+ * does not release it.
+ *
+ * @since 2023.5
+ */
+public class LegalHoldCaseIndex {
+
+    public static final String KV_STORE_NAME = RetentionConstants.KV_STORE_NAME;
+
+    protected static final String CASE_KEY_PREFIX = "legalHoldCase:";
+
+    protected static final String DOCUMENT_KEY_PREFIX = "legalHoldDocument:";
+
+    protected static final String KEY_SEPARATOR = ":";
+
+    protected static final String CASES_SEPARATOR = ",";
+
+    protected static final String MEMBER = "1";
+
+    /**
+     * Marker stored among the cases of a document held outside of any case, it cannot clash with a case id which
+     * cannot contain a {@code :}.
+     */
+    protected static final String NO_CASE = KEY_SEPARATOR + "none";
+
+    public static void checkCaseId(String caseId) {
+        if (StringUtils.isBlank(caseId) || caseId.contains(KEY_SEPARATOR) || caseId.contains(CASES_SEPARATOR)) {
+            throw new IllegalArgumentException("Invalid legal hold case id: " + caseId);
+        }
+    }
+
+    protected KeyValueStoreProvider getStore() {
+        return (KeyValueStoreProvider) Framework.getService(KeyValueService.class).getKeyValueStore(KV_STORE_NAME);
+    }
+
+    protected String getCaseKeyPrefix(String repositoryName, String caseId) {
+        return CASE_KEY_PREFIX + repositoryName + KEY_SEPARATOR + caseId + KEY_SEPARATOR;
+    }
+
+    protected String getDocumentKey(String repositoryName, String docId) {
+        return DOCUMENT_KEY_PREFIX + repositoryName + KEY_SEPARATOR + docId;
+    }
+
+    /**
+     * Adds the documents to the case. The documents already held which are not under any case yet are marked as held
+     * outside of any case.
+     */
+    public void add(String repositoryName, String caseId, Collection<String> docIds, Collection<String> heldDocIds) {
+        checkCaseId(caseId);
+        KeyValueStore store = getStore();
+        String prefix = getCaseKeyPrefix(repositoryName, caseId);
+        for (String docId : docIds) {
+            store.put(prefix + docId, MEMBER);
+            update(store, getDocumentKey(repositoryName, docId), cases -> {
+                if (cases.isEmpty() && heldDocIds.contains(docId)) {
+                    cases.add(NO_CASE);
+                }
+                cases.add(caseId);
+            });
+        }
+    }
+
+    /**
+     * Marks the documents as held outside of any case. Only the documents under a case are updated, the other ones
+     * being released by removing their legal hold only.
+     */
+    public void addWithoutCase(String repositoryName, Collection<String> docIds) {
+        KeyValueStore store = getStore();
+        for (String docId : docIds) {
+            String documentKey = getDocumentKey(repositoryName, docId);
+            if (store.getString(documentKey) != null) {
+                update(store, documentKey, cases -> {
+                    if (!cases.isEmpty()) {
+                        cases.add(NO_CASE);
+                    }
+                });
+            }
+        }
+    }
+
+    public Set<String> getCases(String repositoryName, String docId) {
+        Set<String> cases = parse(getStore().getString(getDocumentKey(repositoryName, docId)));
+        cases.remove(NO_CASE);
+        return Collections.unmodifiableSet(cases);
+    }
+
+    /**
+     * Returns whether the document is held outside of any case in addition to its cases.
+     */
+    public boolean isHeldWithoutCase(String repositoryName, String docId) {
+        return parse(getStore().getString(getDocumentKey(repositoryName, docId))).contains(NO_CASE);
+    }
+
+    /**
+     * Removes the document from the case.
+     *
+     * @return the cases the document is still under, including the marker of a hold outside of any case
+     */
+    public Set<String> remove(String repositoryName, String caseId, String docId) {
+        checkCaseId(caseId);
+        KeyValueStore store = getStore();
+        store.put(getCaseKeyPrefix(repositoryName, caseId) + docId, (String) null);
+        return update(store, getDocumentKey(repositoryName, docId), cases -> cases.remove(caseId));
+    }
+
+    /**
+     * Removes the document from all its cases.
+     */
+    public void clear(String repositoryName, String docId) {
+        KeyValueStore store = getStore();
+        String documentKey = getDocumentKey(repositoryName, docId);
+        String value = store.getString(documentKey);
+        if (value == null) {
+            return;
+        }
+        for (String caseId : parse(value)) {
+            if (!NO_CASE.equals(caseId)) {
+                store.put(getCaseKeyPrefix(repositoryName, caseId) + docId, (String) null);
+            }
+        }
+        store.put(documentKey, (String) null);
+    }
+
+    /**
+     * Streams the ids of the documents under the case, the stream must be closed.
+     */
+    public Stream<String> getDocumentIds(String repositoryName, String caseId) {
+        checkCaseId(caseId);
+        String prefix = getCaseKeyPrefix(repositoryName, caseId);
+        return getStore().keyStream(prefix).map(key -> key.substring(prefix.length()));
+    }
+
+    protected Set<String> update(KeyValueStore store, String key, Consumer<Set<String>> updater) {
+        for (;;) {
+            String value = store.getString(key);
+            Set<String> cases = parse(value);
+            updater.accept(cases);
+            String newValue = cases.isEmpty() ? null : String.join(CASES_SEPARATOR, cases);
+            if (store.compareAndSet(key, value, newValue)) {
+                return Collections.unmodifiableSet(cases);
+            }
+        }
+    }
+
+    protected Set<String> parse(String value) {
+        if (StringUtils.isEmpty(value)) {
+            return new TreeSet<>();
+        }
+        return Arrays.stream(value.split(CASES_SEPARATOR)).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.common.utils.DurationUtils;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * Events waiting for the evaluation of the event-based rules of records, stored in a {@link KeyValueStore} so that
+ * they can be merged across event bundles and cluster nodes while the evaluation work is queued.
+ * <p>
+ * The time at which the evaluation work was scheduled is stored with the events. When it is older than the
+ * {@link #STALE_DELAY_PROPERTY} delay, the work is considered lost and a new one is requested, a work finding no
+ * pending events for its documents doing nothing.
+ *
+ * @since 2023.5
+ */
+public class PendingRuleEvaluations {
+
+    protected static final String KEY_PREFIX = "evaluation:";
+
+    protected static final String KEY_SEPARATOR = ":";
+
+    protected static final String EVENTS_SEPARATOR = ",";
+
+    protected static final String TIME_SEPARATOR = "|";
+
+    /**
+     * Delay after which pending events whose evaluation work did not run are scheduled again.
+     */
+    public static final String STALE_DELAY_PROPERTY = "nuxeo.retention.evaluation.staleDelay";
+
+    public static final Duration DEFAULT_STALE_DELAY = Duration.ofHours(1);
+
+    /**
+     * Time to live of the pending events, in seconds, in case the evaluation work is lost.
+     */
+    protected static final long TTL = 24 * 60 * 60;
+
+    protected KeyValueStore getStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(RetentionConstants.KV_STORE_NAME);
+    }
+
+    protected String getKey(String repositoryName, String docId) {
+        return KEY_PREFIX + repositoryName + KEY_SEPARATOR + docId;
+    }
+
+    protected Duration getStaleDelay() {
+        return DurationUtils.parsePositive(Framework.getProperty(STALE_DELAY_PROPERTY), DEFAULT_STALE_DELAY);
+    }
+
+    /**
+     * Merges the events with the ones already pending for the documents.
+     *
+     * @return the ids of the documents which were not pending yet, or whose evaluation work is stale, and need an
+     *         evaluation work to be scheduled
+     */
+    public List<String> add(String repositoryName, Map<String, Set<String>> docsToCheckAndEvents) {
+        KeyValueStore store = getStore();
+        long staleDelay = getStaleDelay().toMillis();
+        List<String> docIds = new ArrayList<>();
+        docsToCheckAndEvents.forEach((docId, events) -> {
+            String key = getKey(repositoryName, docId);
+            for (;;) {
+                String value = store.getString(key);
+                long now = System.currentTimeMillis();
+                boolean schedule = value == null || now - parseTime(value) >= staleDelay;
+                Set<String> pendingEvents = parseEvents(value);
+                pendingEvents.addAll(events);
+                String newValue = (schedule ? now : parseTime(value)) + TIME_SEPARATOR
+                        + String.join(EVENTS_SEPARATOR, pendingEvents);
+                if (store.compareAndSet(key, value, newValue, TTL)) {
+                    if (schedule) {
+                        docIds.add(docId);
+                    }
+                    break;
+                }
+            }
+        });
+        return docIds;
+    }
+
+    /**
+     * Removes and returns the events pending for the documents, the documents without pending events are omitted.
+     */
+    public Map<String, Set<String>> take(String repositoryName, Collection<String> docIds) {
+        KeyValueStore store = getStore();
+        Map<String, Set<String>> docsToCheckAndEvents = new HashMap<>();
+        for (String docId : docIds) {
+            String key = getKey(repositoryName, docId);
+            for (;;) {
+                String value = store.getString(key);
+                if (value == null) {
+                    break;
+                }
+                if (store.compareAndSet(key, value, null)) {
+                    docsToCheckAndEvents.put(docId, parseEvents(value));
+                    break;
+                }
+            }
+        }
+        return docsToCheckAndEvents;
+    }
+
+    /**
+     * Returns the time at which the evaluation work was scheduled, 0 for a value without time.
+     */
+    protected long parseTime(String value) {
+        if (!StringUtils.contains(value, TIME_SEPARATOR)) {
+            return 0;
+        }
+        return Long.parseLong(StringUtils.substringBefore(value, TIME_SEPARATOR));
+    }
+
+    protected Set<String> parseEvents(String value) {
+        if (StringUtils.contains(value, TIME_SEPARATOR)) {
+            value = StringUtils.substringAfter(value, TIME_SEPARATOR);
+        }
+        if (StringUtils.isEmpty(value)) {
+            return new TreeSet<>();
+        }
+        return Arrays.stream(value.split(EVENTS_SEPARATOR)).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import static org.nuxeo.common.utils.DateUtils.formatISODateTime;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.SYSTEM_USERNAME;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.common.utils.DurationUtils;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.repository.RepositoryService;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.cluster.ClusterService;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Scheduler expiring the records close to their retain until date, instead of waiting for the hourly
+ * {@code findRetentionExpired} schedule.
+ * <p>
+ * It is ticked by the {@code expireRetentionRecords} schedule, every 10 seconds by default, see
+ * {@link #CRON_EXPRESSION_PROPERTY}. The records whose retention expires within the lookahead window are fetched
+ * incrementally by pages of limited size, ordered by {@code ecm:retainUntil} from the last fetched record, and kept in
+ * a priority queue ordered by due date. The pages are fetched until the due records are all fetched, and at each tick
+ * all the due records are expired by bulk commands of limited size, so that the expirations follow the backlog. The
+ * scheduler only runs on the cluster node holding the scheduler lease, the hourly schedule remaining the safety net
+ * for the records this scheduler would miss, such as the ones retained or extended until a date already fetched.
+ *
+ * @since 2023.5
+ */
+public class RetentionExpirationScheduler {
+
+    private static final Logger log = LogManager.getLogger(RetentionExpirationScheduler.class);
+
+    public static final String ENABLED_PROPERTY = "nuxeo.retention.expiration.scheduler.enabled";
+
+    public static final String LOOKAHEAD_PROPERTY = "nuxeo.retention.expiration.scheduler.lookahead";
+
+    /**
+     * Maximum number of records expired by one bulk command.
+     */
+    public static final String BATCH_SIZE_PROPERTY = "nuxeo.retention.expiration.scheduler.batchSize";
+
+    /**
+     * Maximum number of records fetched by one query.
+     */
+    public static final String FETCH_SIZE_PROPERTY = "nuxeo.retention.expiration.scheduler.fetchSize";
+
+    /**
+     * Cron expression of the {@code expireRetentionRecords} schedule ticking the scheduler.
+     */
+    public static final String CRON_EXPRESSION_PROPERTY = "nuxeo.retention.expiration.scheduler.cronExpression";
+
+    /**
+     * Duration of the scheduler lease, to be kept above the period of the {@code expireRetentionRecords} schedule.
+     */
+    public static final String LEASE_DURATION_PROPERTY = "nuxeo.retention.expiration.scheduler.leaseDuration";
+
+    public static final Duration DEFAULT_LOOKAHEAD = Duration.ofMinutes(10);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    public static final Duration DEFAULT_LEASE_DURATION = Duration.ofSeconds(30);
+
+    /**
+     * Bulk action of the platform setting the retention as expired and firing the
+     * {@link org.nuxeo.ecm.core.api.event.DocumentEventTypes#RETENTION_EXPIRED} event.
+     */
+    public static final String RETENTION_EXPIRED_ACTION = "retentionExpired";
+
+    /**
+     * Query selecting the records expiring after the last fetched one and before the end of the window. Expects the
+     * date and the escaped id of the last fetched record, the date again and the end of the window as parameters.
+     */
+    protected static final String EXPIRING_RECORDS_QUERY = "SELECT " + NXQL.ECM_UUID + ", ecm:retainUntil"
+            + " FROM Document WHERE ecm:isProxy = 0" //
+            + " AND (ecm:retainUntil > TIMESTAMP '%s'" //
+            + " OR (ecm:retainUntil = TIMESTAMP '%s' AND " + NXQL.ECM_UUID + " > %s))" //
+            + " AND ecm:retainUntil < TIMESTAMP '%s'" //
+            + " ORDER BY ecm:retainUntil, " + NXQL.ECM_UUID;
+
+    protected static final String EXPIRED_RECORDS_QUERY = "SELECT * FROM Document WHERE ecm:isProxy = 0" //
+            + " AND " + NXQL.ECM_UUID + " IN (%s)" //
+            + " AND ecm:retainUntil < TIMESTAMP '%s'";
+
+    protected static final String LEASE_KEY = "expirationScheduler";
+
+    protected final Duration lookahead;
+
+    protected final int batchSize;
+
+    protected final int fetchSize;
+
+    protected final Duration leaseDuration;
+
+    protected final String nodeId;
+
+    protected final PriorityQueue<Expiration> queue = new PriorityQueue<>(
+            Comparator.comparingLong(Expiration::getDueTime));
+
+    /** The records in the queue, by repository and id, to not queue them twice. */
+    protected final Map<String, Expiration> queued = new HashMap<>();
+
+    /**
+     * The last fetched record of each repository, from which the next records are fetched. The records already
+     * expired when the scheduler starts are left to the hourly schedule.
+     */
+    protected final Map<String, Expiration> fetched = new HashMap<>();
+
+    public RetentionExpirationScheduler() {
+        this(getNodeId());
+    }
+
+    public RetentionExpirationScheduler(String nodeId) {
+        this.nodeId = nodeId;
+        lookahead = DurationUtils.parsePositive(Framework.getProperty(LOOKAHEAD_PROPERTY), DEFAULT_LOOKAHEAD);
+        batchSize = Integer.parseInt(
+                Framework.getProperty(BATCH_SIZE_PROPERTY, String.valueOf(DEFAULT_BATCH_SIZE)));
+        fetchSize = Integer.parseInt(
+                Framework.getProperty(FETCH_SIZE_PROPERTY, String.valueOf(DEFAULT_FETCH_SIZE)));
+        leaseDuration = DurationUtils.parsePositive(Framework.getProperty(LEASE_DURATION_PROPERTY),
+                DEFAULT_LEASE_DURATION);
+    }
+
+    protected static String getNodeId() {
+        ClusterService clusterService = Framework.getService(ClusterService.class);
+        return clusterService.isEnabled() ? clusterService.getNodeId() : "local";
+    }
+
+    public static boolean isEnabled() {
+        return Framework.isBooleanPropertyTrue(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Releases the lease, another node taking over at its next tick.
+     */
+    public synchronized void stop() {
+        getStore().compareAndSet(LEASE_KEY, nodeId, null);
+        reset();
+    }
+
+    protected void reset() {
+        queue.clear();
+        queued.clear();
+        fetched.clear();
+    }
+
+    /**
+     * Fetches the records expiring within the lookahead window since the last fetched one, then expires the due ones.
+     *
+     * @return the number of records whose expiration was submitted
+     */
+    public synchronized int tick(long now) {
+        if (!acquireLease()) {
+            // another node expires the records
+            reset();
+            return 0;
+        }
+        long to = now + lookahead.toMillis();
+        Framework.doPrivileged(() -> TransactionHelper.runInTransaction(() -> fetch(now, to)));
+        List<Expiration> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().getDueTime() <= now) {
+            Expiration expiration = queue.poll();
+            queued.remove(expiration.getKey());
+            due.add(expiration);
+        }
+        for (int i = 0; i < due.size(); i += batchSize) {
+            expire(due.subList(i, Math.min(i + batchSize, due.size())), now);
+        }
+        return due.size();
+    }
+
+    /**
+     * Returns the number of records waiting for their due time or for a batch.
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    protected KeyValueStore getStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(RetentionConstants.KV_STORE_NAME);
+    }
+
+    /**
+     * Holds the lease for its duration, renewing it when this node already owns it.
+     */
+    protected boolean acquireLease() {
+        KeyValueStore store = getStore();
+        long ttl = Math.max(1, leaseDuration.toSeconds());
+        return store.compareAndSet(LEASE_KEY, nodeId, nodeId, ttl) || store.compareAndSet(LEASE_KEY, null, nodeId, ttl);
+    }
+
+    protected void fetch(long now, long to) {
+        RepositoryService repositoryService = Framework.getService(RepositoryService.class);
+        for (String repositoryName : repositoryService.getRepositoryNames()) {
+            CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+            Expiration last = fetched.computeIfAbsent(repositoryName, k -> new Expiration(k, "", now));
+            List<Map<String, Serializable>> rows;
+            do {
+                String query = String.format(EXPIRING_RECORDS_QUERY, formatISODateTime(toCalendar(last.getDueTime())),
+                        formatISODateTime(toCalendar(last.getDueTime())), NXQL.escapeString(last.getDocId()),
+                        formatISODateTime(toCalendar(to)));
+                rows = session.queryProjection(query, fetchSize, 0);
+                for (Map<String, Serializable> row : rows) {
+                    String docId = (String) row.get(NXQL.ECM_UUID);
+                    long dueTime = ((Calendar) row.get("ecm:retainUntil")).getTimeInMillis();
+                    last = new Expiration(repositoryName, docId, dueTime);
+                    schedule(last);
+                }
+                // the due records are all fetched at once, the other ones at the next ticks
+            } while (rows.size() == fetchSize && last.getDueTime() <= now);
+            fetched.put(repositoryName, last);
+        }
+        log.trace("Fetched records expiring until {}, {} pending", () -> formatISODateTime(toCalendar(to)),
+                queue::size);
+    }
+
+    /**
+     * Queues the expiration of a record, unless it is already queued with the same due time.
+     */
+    protected void schedule(Expiration expiration) {
+        String key = expiration.getKey();
+        Expiration previous = queued.put(key, expiration);
+        if (previous != null) {
+            if (previous.getDueTime() == expiration.getDueTime()) {
+                return;
+            }
+            // the retention was extended
+            queue.remove(previous);
+        }
+        queue.add(expiration);
+    }
+
+    /**
+     * Submits the expiration of the due records, the retain until date being checked again in case the retention was
+     * extended in the meantime.
+     */
+    protected void expire(List<Expiration> due, long now) {
+        Map<String, List<String>> idsByRepository = new HashMap<>();
+        due.forEach(e -> idsByRepository.computeIfAbsent(e.getRepositoryName(), k -> new ArrayList<>())
+                                        .add(e.getDocId()));
+        BulkService bulkService = Framework.getService(BulkService.class);
+        idsByRepository.forEach((repositoryName, ids) -> {
+            String query = String.format(EXPIRED_RECORDS_QUERY,
+                    ids.stream().map(NXQL::escapeString).collect(Collectors.joining(", ")),
+                    formatISODateTime(toCalendar(now + 1)));
+            BulkCommand command = new BulkCommand.Builder(RETENTION_EXPIRED_ACTION, query,
+                    SYSTEM_USERNAME).repository(repositoryName).build();
+            String commandId = bulkService.submit(command);
+            log.debug("Submitted expiration of {} records in repository {}: {}", ids.size(), repositoryName,
+                    commandId);
+        });
+    }
+
+    protected static Calendar toCalendar(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    protected static class Expiration {
+
+        protected final String repositoryName;
+
+        protected final String docId;
+
+        protected final long dueTime;
+
+        protected Expiration(String repositoryName, String docId, long dueTime) {
+            this.repositoryName = repositoryName;
+            this.docId = docId;
+            this.dueTime = dueTime;
+        }
+
+        public String getRepositoryName() {
+            return repositoryName;
+        }
+
+        public String getDocId() {
+            return docId;
+        }
+
+        public long getDueTime() {
+            return dueTime;
+        }
+
+        public String getKey() {
+            return repositoryName + ":" + docId;
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import java.beans.FeatureDescriptor;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.el.CompositeELResolver;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.ExpressionFactory;
+import javax.el.FunctionMapper;
+import javax.el.PropertyNotWritableException;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.el.ExpressionFactoryImpl;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.el.ExpressionContext;
+import org.nuxeo.retention.RetentionConstants;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Evaluates the starting point expressions of event-based retention rules.
+ * <p>
+ * Expressions are parsed once and cached by expression text. The variables available to an expression are the ones
+ * the previous {@link org.nuxeo.ecm.platform.actions.ELActionContext} evaluation exposed: {@code document},
+ * {@code currentDocument} and {@code actionContextDocument} for the record, {@code principal} and {@code currentUser},
+ * which were never set and still resolve to {@code null}, {@code currentDate} and {@code eventInput}. They are not
+ * bound at parse time but resolved at evaluation time, so a parsed expression can be shared between records and
+ * threads.
+ *
+ * @since 2023.5
+ */
+public class RetentionExpressionEvaluator {
+
+    private static final Logger log = LogManager.getLogger(RetentionExpressionEvaluator.class);
+
+    public static final String DOCUMENT_VARIABLE = "document";
+
+    public static final String CURRENT_DOCUMENT_VARIABLE = "currentDocument";
+
+    public static final String ACTION_CONTEXT_DOCUMENT_VARIABLE = "actionContextDocument";
+
+    public static final String PRINCIPAL_VARIABLE = "principal";
+
+    public static final String CURRENT_USER_VARIABLE = "currentUser";
+
+    public static final String CURRENT_DATE_VARIABLE = "currentDate";
+
+    protected final ExpressionFactory expressionFactory = new ExpressionFactoryImpl();
+
+    protected final Cache<String, ValueExpression> expressions;
+
+    protected final ELResolver resolver;
+
+    public RetentionExpressionEvaluator(long maxSize) {
+        expressions = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+        CompositeELResolver compositeResolver = new CompositeELResolver();
+        compositeResolver.add(new VariableResolver());
+        compositeResolver.add(new ExpressionContext().getELResolver());
+        resolver = compositeResolver;
+    }
+
+    /**
+     * Evaluates the expression against the document and the event input.
+     *
+     * @return {@code true} if the expression evaluates to {@code true}, {@code false} otherwise
+     */
+    public boolean evaluate(String expression, DocumentModel document, String eventInput) {
+        ValueExpression valueExpression = getValueExpression(expression);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put(DOCUMENT_VARIABLE, document);
+        variables.put(CURRENT_DOCUMENT_VARIABLE, document);
+        variables.put(ACTION_CONTEXT_DOCUMENT_VARIABLE, document);
+        variables.put(PRINCIPAL_VARIABLE, null);
+        variables.put(CURRENT_USER_VARIABLE, null);
+        variables.put(CURRENT_DATE_VARIABLE, Calendar.getInstance());
+        variables.put(RetentionConstants.EVENT_BASED_RULE_INPUT, eventInput);
+        return Boolean.TRUE.equals(valueExpression.getValue(new EvaluationContext(variables)));
+    }
+
+    /**
+     * Evaluates the expression against the event input only, without any document.
+     *
+     * @return the evaluation result, or {@code null} if the expression depends on another variable than the event
+     *         input or cannot be evaluated without a document
+     */
+    public Boolean evaluate(String expression, String eventInput) {
+        ValueExpression valueExpression = getValueExpression(expression);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put(RetentionConstants.EVENT_BASED_RULE_INPUT, eventInput);
+        EvaluationContext context = new EvaluationContext(variables);
+        try {
+            Object value = valueExpression.getValue(context);
+            return context.unknownVariable ? null : Boolean.valueOf(Boolean.TRUE.equals(value));
+        } catch (RuntimeException e) {
+            log.trace("Expression {} cannot be evaluated on event input only", expression, e);
+            return null;
+        }
+    }
+
+    protected ValueExpression getValueExpression(String expression) {
+        ValueExpression valueExpression = expressions.getIfPresent(expression);
+        if (valueExpression == null) {
+            log.debug("Parsing expression: {}", expression);
+            String finalExpression = expression;
+            if (!expression.startsWith("#{") && !expression.startsWith("${")) {
+                finalExpression = "#{" + expression + "}";
+            }
+            // parse against an empty context so that variables are left to the resolver
+            valueExpression = expressionFactory.createValueExpression(new ExpressionContext(), finalExpression,
+                    Boolean.class);
+            expressions.put(expression, valueExpression);
+        }
+        return valueExpression;
+    }
+
+    /**
+     * Returns the number of parsed expressions in cache.
+     */
+    public long getCacheSize() {
+        return expressions.size();
+    }
+
+    /**
+     * Returns the ratio of expression lookups served from the cache.
+     */
+    public double getCacheHitRate() {
+        return expressions.stats().hitRate();
+    }
+
+    public void invalidate() {
+        expressions.invalidateAll();
+    }
+
+    /**
+     * Evaluation context carrying the variables of one evaluation.
+     */
+    protected class EvaluationContext extends ELContext {
+
+        protected final Map<String, Object> variables;
+
+        /**
+         * Whether the expression referenced a top level identifier which is not a variable of this evaluation.
+         */
+        protected boolean unknownVariable;
+
+        protected EvaluationContext(Map<String, Object> variables) {
+            this.variables = variables;
+            putContext(EvaluationContext.class, this);
+        }
+
+        @Override
+        public ELResolver getELResolver() {
+            return resolver;
+        }
+
+        @Override
+        public FunctionMapper getFunctionMapper() {
+            // functions are bound at parse time
+            return null;
+        }
+
+        @Override
+        public VariableMapper getVariableMapper() {
+            // variables are resolved by the VariableResolver
+            return null;
+        }
+
+    }
+
+    /**
+     * Resolves the top level identifiers against the variables of the {@link EvaluationContext}.
+     */
+    protected static class VariableResolver extends ELResolver {
+
+        protected Map<String, Object> getVariables(ELContext context, Object base, Object property) {
+            if (base != null || !(property instanceof String)) {
+                return null;
+            }
+            EvaluationContext evaluationContext = (EvaluationContext) context.getContext(EvaluationContext.class);
+            if (evaluationContext == null) {
+                return null;
+            }
+            if (!evaluationContext.variables.containsKey(property)) {
+                evaluationContext.unknownVariable = true;
+                return null;
+            }
+            return evaluationContext.variables;
+        }
+
+        @Override
+        public Object getValue(ELContext context, Object base, Object property) {
+            Map<String, Object> variables = getVariables(context, base, property);
+            if (variables == null) {
+                return null;
+            }
+            context.setPropertyResolved(true);
+            return variables.get(property);
+        }
+
+        @Override
+        public Class<?> getType(ELContext context, Object base, Object property) {
+            Map<String, Object> variables = getVariables(context, base, property);
+            if (variables == null) {
+                return null;
+            }
+            context.setPropertyResolved(true);
+            Object value = variables.get(property);
+            return value == null ? null : value.getClass();
+        }
+
+        @Override
+        public void setValue(ELContext context, Object base, Object property, Object value) {
+            if (getVariables(context, base, property) != null) {
+                throw new PropertyNotWritableException("Variable is read only: " + property);
+            }
+        }
+
+        @Override
+        public boolean isReadOnly(ELContext context, Object base, Object property) {
+            if (getVariables(context, base, property) == null) {
+                return false;
+            }
+            context.setPropertyResolved(true);
+            return true;
+        }
+
+        @Override
+        public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
+            return null;
+        }
+
+        @Override
+        public Class<?> getCommonPropertyType(ELContext context, Object base) {
+            return base == null ? String.class : null;
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Forecast of the upcoming retention expirations, by day and rule, so that the expiration horizon can be read without
+ * scanning {@code ecm:retainUntil}.
+ * <p>
+ * The forecast is a view of the horizon counters of the {@link RetentionStatistics}, fed by the retention events of the
+ * documents and reconciled with the other statistics. The documents retained indeterminately are not part of the
+ * forecast.
+ *
+ * @since 2023.5
+ */
+public class RetentionForecast {
+
+    public static final int DEFAULT_DAYS = 365;
+
+    /**
+     * Rule of the documents retained without any retention rule.
+     */
+    public static final String NO_RULE = RetentionStatistics.NO_RULE;
+
+    protected static final String KEY_SEPARATOR = ":";
+
+    protected final RetentionStatistics statistics;
+
+    public RetentionForecast(RetentionStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the number of documents whose retention expires, by day and rule.
+     *
+     * @param from the first day of the forecast
+     * @param days the number of days of the forecast
+     * @param ruleId the rule whose expirations are forecast, or {@code null} for all the rules
+     * @return the counts by rule, by day
+     */
+    public Map<String, Map<String, Long>> get(String repositoryName, LocalDate from, int days, String ruleId) {
+        String first = from.toString();
+        String last = from.plusDays(days - 1L).toString();
+        Map<String, Map<String, Long>> forecast = new TreeMap<>();
+        statistics.getHorizon(repositoryName).forEach((counter, count) -> {
+            String[] bucket = counter.split(KEY_SEPARATOR, 2);
+            String day = bucket[0];
+            if (day.compareTo(first) < 0 || day.compareTo(last) > 0 || ruleId != null && !ruleId.equals(bucket[1])) {
+                return;
+            }
+            forecast.computeIfAbsent(day, k -> new HashMap<>()).put(bucket[1], count);
+        });
+        return forecast;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.nuxeo.runtime.pubsub.SerializableMessage;
+
+/**
+ * Message sent to the other cluster nodes to invalidate the retention state they cache.
+ *
+ * @since 2023.5
+ */
+public class RetentionInvalidation implements SerializableMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    protected static final String SEPARATOR = ":";
+
+    public enum Kind {
+        /** A retention rule document was created, modified, trashed or removed. */
+        RULE,
+        /** The RetentionEvent vocabulary was modified. */
+        ACCEPTED_EVENTS
+    }
+
+    protected final Kind kind;
+
+    protected final String id;
+
+    public RetentionInvalidation(Kind kind, String id) {
+        this.kind = kind;
+        this.id = id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void serialize(OutputStream out) throws IOException {
+        IOUtils.write(kind.name() + SEPARATOR + (id == null ? "" : id), out, UTF_8);
+    }
+
+    public static RetentionInvalidation deserialize(InputStream in) throws IOException {
+        String string = IOUtils.toString(in, UTF_8);
+        int i = string.indexOf(SEPARATOR);
+        if (i < 0) {
+            throw new IOException("Invalid retention invalidation: " + string);
+        }
+        String id = string.substring(i + 1);
+        return new RetentionInvalidation(Kind.valueOf(string.substring(0, i)), id.isEmpty() ? null : id);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + kind + "," + id + ")";
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+import org.nuxeo.runtime.pubsub.AbstractPubSubBroadcaster;
+
+/**
+ * Broadcasts the {@link RetentionInvalidation}s to the other cluster nodes and hands over the received ones to the
+ * given consumer.
+ *
+ * @since 2023.5
+ */
+public class RetentionInvalidator extends AbstractPubSubBroadcaster<RetentionInvalidation> {
+
+    protected static final String RETENTION_INVALIDATION_TOPIC = "retentioninval";
+
+    protected final Consumer<RetentionInvalidation> consumer;
+
+    public RetentionInvalidator(Consumer<RetentionInvalidation> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public String getChannelName() {
+        return RETENTION_INVALIDATION_TOPIC;
+    }
+
+    @Override
+    public RetentionInvalidation deserialize(InputStream in) throws IOException {
+        return RetentionInvalidation.deserialize(in);
+    }
+
+    @Override
+    public void receivedMessage(RetentionInvalidation invalidation) {
+        consumer.accept(invalidation);
+    }
+
+}
@@ -18,15 +18,18 @@
  */
 package org.nuxeo.retention.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.retention.RetentionConstants;
 import org.nuxeo.retention.adapters.Record;
 import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.retention.event.RetentionEventContext;
 
 /**
@@ -51,6 +54,19 @@ public interface RetentionManager {
      */
     DocumentModel attachRule(DocumentModel document, RetentionRule rule, CoreSession session);
 
+    /**
+     * Attaches a retention rule on a batch of documents, see {@link #attachRule(DocumentModel, RetentionRule,
+     * CoreSession)}. The documents the rule cannot be attached to are skipped. The records are saved at once and the
+     * retention expiration date is computed once for the whole batch, unless the rule is metadata-based.
+     *
+     * @param documents the documents
+     * @param rule the retention rule
+     * @param session the core session
+     * @return the number of documents the rule was attached to
+     * @since 2023.5
+     */
+    int attachRule(List<DocumentModel> documents, RetentionRule rule, CoreSession session);
+
     /**
      * Unattaches a retention rule on a document and stop the current retention if any.Rule can be unattached only on
      * flexible records.
@@ -75,6 +91,20 @@ public interface RetentionManager {
      */
     void fireRetentionEvent(String eventName, String eventInput, boolean audit, CoreSession session);
 
+    /**
+     * Fires a retention event with several inputs, the records matching any of the inputs being evaluated in a single
+     * pass. Each input is audited separately.
+     *
+     * @param eventName the event to be fired
+     * @param eventInputs the inputs
+     * @param audit should the event be audited
+     * @param session the session
+     * @throws IllegalArgumentException If an event input does not match the
+     *             {@link RetentionConstants#EVENT_INPUT_REGEX}
+     * @since 2023.5
+     */
+    void fireRetentionEvent(String eventName, List<String> eventInputs, boolean audit, CoreSession session);
+
     /**
      * Checks that the session has sufficient permission to attach the rule to the document.
      *
@@ -86,14 +116,199 @@ public interface RetentionManager {
      */
     boolean canAttachRule(DocumentModel document, RetentionRule rule, CoreSession session);
 
+    /**
+     * Returns the snapshot of the retention rule with the given id. The rule document is only loaded when no snapshot
+     * is cached yet for this rule.
+     *
+     * @param ruleId the retention rule id
+     * @param session the session
+     * @return the retention rule snapshot, or {@code null} if the rule does not exist
+     * @since 2023.5
+     */
+    RetentionRuleSnapshot getRuleSnapshot(String ruleId, CoreSession session);
+
+    /**
+     * Returns the snapshot of the given retention rule. The cached snapshot is reused as long as its change token
+     * matches the one of the rule document.
+     *
+     * @param rule the retention rule
+     * @return the retention rule snapshot
+     * @since 2023.5
+     */
+    RetentionRuleSnapshot getRuleSnapshot(RetentionRule rule);
+
+    /**
+     * Returns the snapshot of the first enabled retention rule attached to the record.
+     *
+     * @param record the record document
+     * @param session the session
+     * @return the retention rule snapshot, or {@code null} if the record has no enabled rule
+     * @since 2023.5
+     */
+    RetentionRuleSnapshot getRuleSnapshot(Record record, CoreSession session);
+
+    /**
+     * Returns the enabled event-based retention rules whose starting point is the given event. The rules are served
+     * from an in-memory index maintained per repository, no query is done unless the index has been invalidated.
+     *
+     * @param eventName the event name
+     * @param repositoryName the repository name
+     * @return the matching retention rules
+     * @since 2023.5
+     */
+    List<RetentionRuleSnapshot> getEventBasedRules(String eventName, String repositoryName);
+
+    /**
+     * Returns the enabled auto retention rules accepting the given document type, the rules without document types
+     * accepting all of them. The rules are served from an in-memory index by document type maintained per repository,
+     * no query is done unless the index has been invalidated.
+     *
+     * @param docType the document type
+     * @param repositoryName the repository name
+     * @return the matching retention rules, by creation order
+     * @since 2023.5
+     */
+    List<RetentionRuleSnapshot> getAutoRules(String docType, String repositoryName);
+
+    /**
+     * Evaluates a starting point expression against the event input only, to know before looking for records whether
+     * the expression can match.
+     *
+     * @param expression the starting point expression
+     * @param eventInput the event input
+     * @return the evaluation result, or {@code null} if the expression depends on the record document
+     * @since 2023.5
+     */
+    Boolean evaluateConditionExpression(String expression, String eventInput);
+
+    /**
+     * Invalidates the state cached for the given retention rule, on this node and on the other cluster nodes.
+     *
+     * @param ruleId the retention rule id
+     * @since 2023.5
+     */
+    void invalidateRule(String ruleId);
+
+    /**
+     * Adds the documents to the given legal hold case. The documents are expected to be under legal hold. The documents
+     * which were already held before joining their first case keep their legal hold when their cases are released.
+     *
+     * @param caseId the legal hold case id
+     * @param docIds the document ids
+     * @param heldDocIds the ids of the documents which were already under legal hold
+     * @param repositoryName the repository name
+     * @throws IllegalArgumentException If the case id is blank or contains a {@code :} or a {@code ,}
+     * @since 2023.5
+     */
+    void addToLegalHoldCase(String caseId, Collection<String> docIds, Collection<String> heldDocIds,
+            String repositoryName);
+
+    /**
+     * Records that the documents are held outside of any legal hold case, so that they keep their legal hold when their
+     * cases are released.
+     *
+     * @param docIds the ids of the documents under legal hold
+     * @param repositoryName the repository name
+     * @since 2023.5
+     */
+    void addToLegalHoldWithoutCase(Collection<String> docIds, String repositoryName);
+
+    /**
+     * Removes the document from the given legal hold case.
+     *
+     * @param caseId the legal hold case id
+     * @param docId the document id
+     * @param repositoryName the repository name
+     * @return true if the document is not under any legal hold case anymore nor held outside of any case, false
+     *         otherwise
+     * @since 2023.5
+     */
+    boolean removeFromLegalHoldCase(String caseId, String docId, String repositoryName);
+
+    /**
+     * Removes the document from all its legal hold cases, when its legal hold is removed without releasing a case or
+     * when it is deleted.
+     *
+     * @param docId the document id
+     * @param repositoryName the repository name
+     * @since 2023.5
+     */
+    void removeFromLegalHoldCases(String docId, String repositoryName);
+
+    /**
+     * Returns the legal hold cases the document is under.
+     *
+     * @param docId the document id
+     * @param repositoryName the repository name
+     * @return the legal hold case ids
+     * @since 2023.5
+     */
+    Set<String> getLegalHoldCases(String docId, String repositoryName);
+
+    /**
+     * Streams the ids of the documents under the given legal hold case. The returned stream must be closed.
+     *
+     * @param caseId the legal hold case id
+     * @param repositoryName the repository name
+     * @return the document ids
+     * @since 2023.5
+     */
+    Stream<String> getLegalHoldCaseDocumentIds(String caseId, String repositoryName);
+
+    /**
+     * Submits a bulk command releasing the given legal hold case. The documents of the case are streamed from the
+     * membership index, their legal hold is removed only if they are not under another case.
+     *
+     * @param caseId the legal hold case id
+     * @param session the session
+     * @return the bulk command id
+     * @since 2023.5
+     */
+    String releaseLegalHoldCase(String caseId, CoreSession session);
+
+    /**
+     * Submits, after the current transaction commits, a bulk command setting on records the starting point event and
+     * value of their rule.
+     *
+     * @param ruleId the id of the rule whose records are updated, or {@code null} to backfill all the records waiting
+     *            for an event whose starting point has not been set yet
+     * @param repositoryName the repository name
+     * @return the bulk command id
+     * @since 2023.5
+     */
+    String updateRecordStartingPoints(String ruleId, String repositoryName);
+
+    /**
+     * Returns whether the repository still has records waiting for an event whose starting point has not been set,
+     * because they were attached before the starting point was stored on the records. Such records are backfilled when
+     * the service starts, they are selected by their rule ids until then. Once none remains, the result is cached.
+     *
+     * @param repositoryName the repository name
+     * @return true if some records have no starting point, false otherwise
+     * @since 2023.5
+     */
+    boolean hasRecordsWithoutStartingPoint(String repositoryName);
+
     /**
      * Triggers the evaluation of event-based retention rules that may be attached to the document ids.
      *
      * @param docsToCheckAndEvents map of document ids and set of events
      * @since 11.1
+     * @deprecated since 2023.5, use {@link #evalRules(String, Map)} instead
      */
+    @Deprecated(since = "2023.5")
     void evalRules(Map<String, Set<String>> docsToCheckAndEvents);
 
+    /**
+     * Triggers the evaluation of event-based retention rules that may be attached to the document ids of the given
+     * repository.
+     *
+     * @param repositoryName the repository name
+     * @param docsToCheckAndEvents map of document ids and set of events
+     * @since 2023.5
+     */
+    void evalRules(String repositoryName, Map<String, Set<String>> docsToCheckAndEvents);
+
     /**
      * Evaluates the event-based retention rules that may be attached to the given record document.
      *
@@ -106,16 +321,39 @@ public interface RetentionManager {
      */
     boolean applyEventBasedRules(Record record, String event, String eventInput, CoreSession session);
 
+    /**
+     * Evaluates the event-based retention rules that may be attached to the given record document against several event
+     * inputs, see {@link #applyEventBasedRules(Record, String, String, CoreSession)}.
+     *
+     * @param record the record document
+     * @param event the event
+     * @param eventInputs the event inputs
+     * @param session the session
+     * @return true if rule matched the given event and one of the inputs and the retention period was started, false
+     *         otherwise
+     * @since 2023.5
+     */
+    boolean applyEventBasedRules(Record record, String event, Set<String> eventInputs, CoreSession session);
+
     /**
      * Returns the list of accepted platform core events for event-based retention rules.
      *
-     * @return the list of accepted events.
+     * @return the immutable list of accepted events.
      * @since 11.1
      */
     List<String> getAcceptedEvents();
 
     /**
-     * Invalidate service (useful in a test context).
+     * Returns the accepted platform core events for event-based retention rules, to be preferred for lookups.
+     *
+     * @return the immutable set of accepted events.
+     * @since 2023.5
+     */
+    Set<String> getAcceptedEventSet();
+
+    /**
+     * Invalidates the state cached by the service on all the cluster nodes, the accepted events being recomputed from
+     * the RetentionEvent vocabulary. To be called after the vocabulary is modified.
      *
      * @since 11.1
      */
@@ -130,4 +368,71 @@ public interface RetentionManager {
      */
     void proceedRetentionExpired(Record record, CoreSession coreSession);
 
+    /**
+     * Proceeds the post-actions of the records whose retention expired, the records being grouped by rule so that the
+     * end actions of a rule are executed for all its records at once.
+     *
+     * @param records the record documents
+     * @param session the core session
+     * @since 2023.5
+     */
+    void proceedRetentionExpired(List<Record> records, CoreSession session);
+
+    /**
+     * Submits the disposition of the expired records marked for it in mass disposition mode, one bulk command being
+     * submitted per delete or trash action.
+     *
+     * @param repositoryName the repository name
+     * @since 2023.5
+     */
+    void disposeRecords(String repositoryName);
+
+    /**
+     * Streams the ids of the expired records marked for their disposition by the given action, the stream must be
+     * closed.
+     *
+     * @param operationId the delete or trash operation id
+     * @param repositoryName the repository name
+     * @since 2023.5
+     */
+    Stream<String> getRecordIdsToDispose(String operationId, String repositoryName);
+
+    /**
+     * Removes the disposition marker of the given records, and returns the ones which can still be disposed of by the
+     * given action, the proxies, the records under legal hold or retention and the already trashed ones being
+     * excluded.
+     *
+     * @param operationId the delete or trash operation id
+     * @param docIds the marked record ids
+     * @param repositoryName the repository name
+     * @since 2023.5
+     */
+    List<String> takeRecordsToDispose(String operationId, List<String> docIds, String repositoryName);
+
+    /**
+     * Returns the retention statistics store, maintained incrementally by the retention operations.
+     *
+     * @return the retention statistics
+     * @since 2023.5
+     */
+    RetentionStatistics getStatistics();
+
+    /**
+     * Submits a bulk command recomputing the retention statistics of the repository, which replace the incrementally
+     * maintained ones once the command is completed.
+     *
+     * @param repositoryName the repository name
+     * @return the bulk command id
+     * @since 2023.5
+     */
+    String reconcileStatistics(String repositoryName);
+
+    /**
+     * Returns the forecast of the upcoming retention expirations, by day and rule.
+     *
+     * @return the retention expiration forecast
+     * @since 2023.5
+     */
+    RetentionForecast getForecast();
+
 }
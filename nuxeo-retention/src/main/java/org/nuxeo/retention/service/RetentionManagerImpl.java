@@ -20,66 +20,117 @@ package org.nuxeo.retention.service;
 
 import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static org.nuxeo.common.utils.DateUtils.formatISODateTime;
-import static org.nuxeo.retention.RetentionConstants.EVENT_BASED_RULE_INPUT;
+import static org.nuxeo.retention.RetentionConstants.ACTIVE_AUTO_RETENTION_RULES_QUERY;
+import static org.nuxeo.retention.RetentionConstants.ACTIVE_EVENT_BASED_RETENTION_RULES_QUERY;
 import static org.nuxeo.retention.RetentionConstants.EVENT_INPUT_REGEX;
 import static org.nuxeo.retention.RetentionConstants.RECORD_MANAGER_GROUP_NAME;
+import static org.nuxeo.retention.RetentionConstants.RECORD_WITHOUT_STARTING_POINT_QUERY;
+import static org.nuxeo.retention.RetentionConstants.RULE_RECORD_DOCUMENT_QUERY;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicStampedReference;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jboss.el.ExpressionFactoryImpl;
 import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.CompiledChain;
 import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.OperationChain;
+import org.nuxeo.ecm.automation.OperationDocumentation;
 import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.automation.OperationType;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.impl.ChainTypeImpl;
 import org.nuxeo.ecm.automation.core.operations.document.DeleteDocument;
 import org.nuxeo.ecm.automation.core.operations.document.LockDocument;
 import org.nuxeo.ecm.automation.core.operations.document.TrashDocument;
 import org.nuxeo.ecm.automation.core.operations.document.UnlockDocument;
+import org.nuxeo.ecm.core.api.CoreInstance;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.api.PropertyException;
 import org.nuxeo.ecm.core.api.event.CoreEventConstants;
 import org.nuxeo.ecm.core.api.event.DocumentEventCategories;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
 import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.versioning.VersioningService;
+import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.action.DeletionAction;
+import org.nuxeo.ecm.core.bulk.action.TrashAction;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventProducer;
 import org.nuxeo.ecm.core.event.EventService;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.event.impl.EventListenerDescriptor;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.repository.RepositoryService;
 import org.nuxeo.ecm.core.schema.types.primitives.DateType;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.ecm.directory.Directory;
 import org.nuxeo.ecm.directory.Session;
 import org.nuxeo.ecm.directory.api.DirectoryService;
-import org.nuxeo.ecm.platform.actions.ELActionContext;
 import org.nuxeo.ecm.platform.audit.api.AuditLogger;
 import org.nuxeo.ecm.platform.audit.api.LogEntry;
 import org.nuxeo.ecm.platform.audit.service.NXAuditEventsService;
 import org.nuxeo.ecm.platform.dublincore.listener.DublinCoreListener;
 import org.nuxeo.ecm.platform.ec.notification.NotificationConstants;
-import org.nuxeo.ecm.platform.el.ExpressionContext;
 import org.nuxeo.ecm.platform.usermanager.UserManager;
 import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.actions.DispositionScroll;
+import org.nuxeo.retention.actions.LegalHoldCaseScroll;
+import org.nuxeo.retention.actions.ReconcileRetentionStatisticsAction;
+import org.nuxeo.retention.actions.ReleaseLegalHoldCaseAction;
+import org.nuxeo.retention.actions.UpdateRecordStartingPointAction;
 import org.nuxeo.retention.adapters.Record;
 import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.retention.event.RetentionEventContext;
+import org.nuxeo.retention.listeners.RetentionDocumentEventListener;
 import org.nuxeo.retention.workers.RuleEvaluationWorker;
+import org.nuxeo.retention.service.RetentionInvalidation.Kind;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.cluster.ClusterService;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.kv.KeyValueStoreProvider;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import io.dropwizard.metrics5.CachedGauge;
+import io.dropwizard.metrics5.Gauge;
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.Timer;
 
 /**
  * @since 11.1
@@ -90,14 +141,207 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
 
     protected static final Pattern EVENT_INPUT_PATTERN = Pattern.compile(EVENT_INPUT_REGEX);
 
+    /**
+     * @since 2023.5
+     */
+    public static final String EXPRESSION_CACHE_MAX_SIZE_PROPERTY = "nuxeo.retention.expression.cache.maxSize";
+
+    /**
+     * @since 2023.5
+     */
+    public static final long DEFAULT_EXPRESSION_CACHE_MAX_SIZE = 1000;
+
+    /**
+     * Maximum number of documents evaluated by a single {@link RuleEvaluationWorker}.
+     *
+     * @since 2023.5
+     */
+    public static final String EVALUATION_CHUNK_SIZE_PROPERTY = "nuxeo.retention.evaluation.chunkSize";
+
+    /**
+     * @since 2023.5
+     */
+    public static final int DEFAULT_EVALUATION_CHUNK_SIZE = 100;
+
+    /**
+     * Mass disposition mode: when enabled, the delete and trash end actions of the rules are run by the bulk actions of
+     * the platform instead of one automation call per record. The expired records are unlocked and marked when
+     * proceeded, then the marked records are disposed of by one command per action submitted by the
+     * {@code disposeRetentionRecords} schedule, the end actions following the delete or trash action being ignored.
+     *
+     * @since 2023.5
+     */
+    public static final String MASS_DISPOSITION_PROPERTY = "nuxeo.retention.disposition.mass.enabled";
+
+    /**
+     * @since 2023.5
+     */
+    public static final String DISPOSITION_BUCKET_SIZE_PROPERTY = "nuxeo.retention.disposition.bucketSize";
+
+    /**
+     * @since 2023.5
+     */
+    public static final int DEFAULT_DISPOSITION_BUCKET_SIZE = 1000;
+
+    /**
+     * @since 2023.5
+     */
+    protected static final long INDETERMINATE_RECORDS_REFRESH_MINUTES = 5;
+
+    /**
+     * Prefix of the keys of the expired records waiting for their disposition, by repository and delete or trash
+     * action.
+     *
+     * @since 2023.5
+     */
+    protected static final String DISPOSITION_KEY_PREFIX = "disposition:";
+
+    /**
+     * @since 2023.5
+     */
+    protected static final String DISPOSITION_MARKER = "1";
+
+    /**
+     * @since 2023.5
+     */
+    protected static final String INDETERMINATE_RECORDS_QUERY = RULE_RECORD_DOCUMENT_QUERY.replace("SELECT *",
+            "SELECT " + NXQL.ECM_UUID);
+
+    /**
+     * @since 2023.5
+     */
+    protected static final String STARTING_POINT_BACKFILL_KEY_PREFIX = "startingPointBackfill:";
+
+    /**
+     * Time during which the other nodes do not submit the starting point backfill again, in seconds.
+     *
+     * @since 2023.5
+     */
+    protected static final long STARTING_POINT_BACKFILL_TTL = TimeUnit.HOURS.toSeconds(1);
+
+    /**
+     * Name of the {@link RetentionDocumentEventListener} contribution.
+     *
+     * @since 2023.5
+     */
+    public static final String DOCUMENT_EVENT_LISTENER_NAME = "retentionDocumentEventListener";
+
+    /**
+     * @since 2023.5
+     */
+    protected final Map<String, RetentionRuleSnapshot> ruleSnapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Enabled event-based rules by starting point event, per repository.
+     *
+     * @since 2023.5
+     */
+    protected final Map<String, Map<String, List<RetentionRuleSnapshot>>> eventBasedRules = new ConcurrentHashMap<>();
+
+    /**
+     * Key of the auto rules accepting all the document types.
+     *
+     * @since 2023.5
+     */
+    protected static final String ANY_DOC_TYPE = "*";
+
+    /**
+     * Enabled auto rules by accepted document type, per repository. The rules accepting all the document types are
+     * indexed under {@link #ANY_DOC_TYPE}.
+     *
+     * @since 2023.5
+     */
+    protected final Map<String, Map<String, List<RetentionRuleSnapshot>>> autoRules = new ConcurrentHashMap<>();
+
+    /**
+     * Repositories whose records all carry the starting point of their rule.
+     *
+     * @since 2023.5
+     */
+    protected final Set<String> startingPointsBackfilled = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @since 2023.5
+     */
+    protected RetentionInvalidator invalidator;
+
+    /**
+     * @since 2023.5
+     */
+    protected RetentionExpressionEvaluator expressionEvaluator;
+
+    /**
+     * @since 2023.5
+     */
+    protected final LegalHoldCaseIndex legalHoldCaseIndex = new LegalHoldCaseIndex();
+
+    /**
+     * @since 2023.5
+     */
+    protected final PendingRuleEvaluations pendingRuleEvaluations = new PendingRuleEvaluations();
+
+    /**
+     * @since 2023.5
+     */
+    protected final RetentionStatistics statistics = new RetentionStatistics();
+
+    /**
+     * @since 2023.5
+     */
+    protected final RetentionForecast forecast = new RetentionForecast(statistics);
+
+    /**
+     * @since 2023.5
+     */
+    protected RetentionExpirationScheduler expirationScheduler;
+
+    /**
+     * Rule actions compiled for a list of documents, empty when the operation has to be run on each document.
+     *
+     * @since 2023.5
+     */
+    protected final Map<String, Optional<CompiledChain>> compiledActions = new ConcurrentHashMap<>();
+
+    /**
+     * @since 2023.5
+     */
+    protected final MetricRegistry registry = RetentionMetrics.getRegistry();
+
     @Override
     public DocumentModel attachRule(DocumentModel document, RetentionRule rule, CoreSession session) {
         checkCanAttachRule(document, rule, session);
-        if (rule.isMakeFlexibleRecords()) {
-            session.makeFlexibleRecord(document.getRef());
-        } else {
-            session.makeRecord(document.getRef());
+        try (Timer.Context context = registry.timer(RetentionMetrics.ATTACH_RULE_TIMER).time()) {
+            doAttachRule(List.of(document), rule, session);
         }
+        return session.getDocument(document.getRef());
+    }
+
+    @Override
+    public int attachRule(List<DocumentModel> documents, RetentionRule rule, CoreSession session) {
+        if (!rule.isEnabled()) {
+            log.info("Cannot attach disabled rule {}", () -> rule.getDocument().getPathAsString());
+            return 0;
+        }
+        List<DocumentModel> attachable = documents.stream()
+                                                  .filter(doc -> canAttachRule(doc, rule, session))
+                                                  .collect(Collectors.toList());
+        if (attachable.isEmpty()) {
+            return 0;
+        }
+        try (Timer.Context context = registry.timer(RetentionMetrics.ATTACH_RULE_TIMER).time()) {
+            doAttachRule(attachable, rule, session);
+        }
+        return attachable.size();
+    }
+
+    /**
+     * Attaches the rule on documents that have already been checked with
+     * {@link #checkCanAttachRule(DocumentModel, RetentionRule, CoreSession)}.
+     *
+     * @since 2023.5
+     */
+    protected void doAttachRule(List<DocumentModel> documents, RetentionRule rule, CoreSession session) {
+        // the starting point is the same for the whole batch, unless it depends on the document metadata
         final Calendar retainUntil;
         if (rule.isImmediate()) {
             retainUntil = rule.getRetainUntilDateFromNow();
@@ -110,52 +354,81 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
             log.debug("Attaching event-based rule on {} matching \"{}\"", rule::getStartingPointEvent,
                     rule::getStartingPointExpression);
         } else if (rule.isMetadataBased()) {
-            String xpath = rule.getMetadataXpath();
-            if (StringUtils.isBlank(xpath)) {
-                throw new NuxeoException("Metadata field is null");
-            }
-            Property prop = document.getProperty(xpath);
-            if (!(prop.getType() instanceof DateType)) {
-                throw new NuxeoException(
-                        String.format("Field %s of type %s is expected to have a DateType", xpath, prop.getType()));
-            }
-            Calendar value = (Calendar) prop.getValue();
-            if (value != null) {
-                Calendar retainUntilCandidate = rule.getRetainUntilDateFrom(value);
-                Calendar now = Calendar.getInstance();
-                if (now.after(retainUntilCandidate)) {
-                    log.info(
-                            "Metabased-based rule found past date {} as retention expiration date on {} from {} property. Ignoring...",
-                            retainUntilCandidate::toInstant, document::getPathAsString, () -> xpath);
-                    retainUntil = null;
-                } else {
-                    retainUntil = retainUntilCandidate;
-                    log.debug("Attaching rule based on {} with value {}", () -> xpath, retainUntil::toInstant);
-                }
-            } else {
-                retainUntil = null;
-                log.info("Attaching rule based on {}: empty value", xpath);
-            }
+            retainUntil = null;
         } else {
             throw new IllegalArgumentException("Unknown starting point policy: " + rule.getStartingPointPolicy());
         }
-        document.addFacet(RetentionConstants.RECORD_FACET);
-        Record record = document.getAdapter(Record.class);
-        record.setRule(rule, session);
-        executeRuleBeginActions(record, session);
-        if (retainUntil != null) {
-            session.setRetainUntil(document.getRef(), retainUntil, null);
+        List<Record> records = new ArrayList<>(documents.size());
+        Map<DocumentRef, Calendar> retainUntils = new HashMap<>();
+        for (DocumentModel document : documents) {
+            if (rule.isMakeFlexibleRecords()) {
+                session.makeFlexibleRecord(document.getRef());
+            } else {
+                session.makeRecord(document.getRef());
+            }
+            retainUntils.put(document.getRef(),
+                    rule.isMetadataBased() ? getMetadataBasedRetainUntil(document, rule) : retainUntil);
+            document.addFacet(RetentionConstants.RECORD_FACET);
+            records.add(document.getAdapter(Record.class));
         }
-        notifyAttachRule(record, rule, session);
-        return session.getDocument(document.getRef());
+        Record.setRule(records, rule, session);
+        RetentionRuleSnapshot snapshot = getRuleSnapshot(rule);
+        executeRuleActions(documents, snapshot.getBeginActions(), session);
+        Map<String, Long> counters = new HashMap<>();
+        for (Record record : records) {
+            DocumentModel document = record.getDocument();
+            Calendar documentRetainUntil = retainUntils.get(document.getRef());
+            if (documentRetainUntil != null) {
+                session.setRetainUntil(document.getRef(), documentRetainUntil, null);
+            }
+            RetentionStatistics.getRuleCounters(record.getRuleIds(), documentRetainUntil)
+                               .forEach((counter, value) -> counters.merge(counter, value, Long::sum));
+            notifyAttachRule(record, rule, session);
+        }
+        statistics.update(session.getRepositoryName(), counters);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected Calendar getMetadataBasedRetainUntil(DocumentModel document, RetentionRule rule) {
+        String xpath = rule.getMetadataXpath();
+        if (StringUtils.isBlank(xpath)) {
+            throw new NuxeoException("Metadata field is null");
+        }
+        Property prop = document.getProperty(xpath);
+        if (!(prop.getType() instanceof DateType)) {
+            throw new NuxeoException(
+                    String.format("Field %s of type %s is expected to have a DateType", xpath, prop.getType()));
+        }
+        Calendar value = (Calendar) prop.getValue();
+        if (value == null) {
+            log.info("Attaching rule based on {}: empty value", xpath);
+            return null;
+        }
+        Calendar retainUntil = rule.getRetainUntilDateFrom(value);
+        Calendar now = Calendar.getInstance();
+        if (now.after(retainUntil)) {
+            log.info(
+                    "Metabased-based rule found past date {} as retention expiration date on {} from {} property. Ignoring...",
+                    retainUntil::toInstant, document::getPathAsString, () -> xpath);
+            return null;
+        }
+        log.debug("Attaching rule based on {} with value {}", () -> xpath, retainUntil::toInstant);
+        return retainUntil;
     }
 
     @Override
     public DocumentModel unattachRule(DocumentModel document, CoreSession session) {
         checkCanUnattachRule(document, session);
         Record record = document.getAdapter(Record.class);
+        // the unset retention leaves its retain until counter as well
+        Map<String, Long> counters = RetentionStatistics.getCounters(record.getRuleIds(),
+                session.getRetainUntil(document.getRef()), false);
         record.unsetRule(session);
         session.unsetRetainUntil(document.getRef());
+        counters.replaceAll((counter, value) -> -value);
+        statistics.update(session.getRepositoryName(), counters);
         document.removeFacet(RetentionConstants.RECORD_FACET);
         document.putContextData(VersioningService.DISABLE_AUTOMATIC_VERSIONING, true);
         document.putContextData(DublinCoreListener.DISABLE_DUBLINCORE_LISTENER, true);
@@ -200,29 +473,50 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
 
     @Override
     public void fireRetentionEvent(String eventName, String eventInput, boolean audit, CoreSession session) {
+        RetentionEventContext evctx = new RetentionEventContext(session.getPrincipal());
+        evctx.setInput(eventInput);
+        fireRetentionEvent(eventName, evctx, Collections.singletonList(eventInput), audit, session);
+    }
+
+    @Override
+    public void fireRetentionEvent(String eventName, List<String> eventInputs, boolean audit, CoreSession session) {
+        RetentionEventContext evctx = new RetentionEventContext(session.getPrincipal());
+        evctx.setInputs(eventInputs);
+        fireRetentionEvent(eventName, evctx, eventInputs, audit, session);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void fireRetentionEvent(String eventName, RetentionEventContext evctx, List<String> eventInputs,
+            boolean audit, CoreSession session) {
         NuxeoPrincipal principal = session.getPrincipal();
         if (!principal.isAdministrator() && !principal.isMemberOf(RECORD_MANAGER_GROUP_NAME)) {
             throw new NuxeoException(
                     String.format("User: %s is not authorized to fire retention event", principal.getName()),
                     SC_FORBIDDEN);
         }
-        if (StringUtils.isNotBlank(eventInput) && !EVENT_INPUT_PATTERN.matcher(eventInput).matches()) {
-            throw new IllegalArgumentException("Invalid retention event input: " + eventInput
-                    + "  is not following the expected pattern:" + EVENT_INPUT_REGEX);
+        for (String eventInput : eventInputs) {
+            if (StringUtils.isNotBlank(eventInput) && !EVENT_INPUT_PATTERN.matcher(eventInput).matches()) {
+                throw new IllegalArgumentException("Invalid retention event input: " + eventInput
+                        + "  is not following the expected pattern:" + EVENT_INPUT_REGEX);
+            }
         }
-        RetentionEventContext evctx = new RetentionEventContext(session.getPrincipal());
-        evctx.setInput(eventInput);
         Event event = evctx.newEvent(eventName);
         Framework.getService(EventProducer.class).fireEvent(event);
         if (audit) {
             AuditLogger logger = Framework.getService(AuditLogger.class);
-            LogEntry entry = logger.newLogEntry();
-            entry.setEventId(name);
-            entry.setEventDate(new Date());
-            entry.setCategory(RetentionConstants.EVENT_CATEGORY);
-            entry.setPrincipalName(session.getPrincipal().getName());
-            entry.setComment(evctx.getInput());
-            logger.addLogEntries(Collections.singletonList(entry));
+            List<LogEntry> entries = new ArrayList<>(eventInputs.size());
+            for (String eventInput : eventInputs) {
+                LogEntry entry = logger.newLogEntry();
+                entry.setEventId(name);
+                entry.setEventDate(new Date());
+                entry.setCategory(RetentionConstants.EVENT_CATEGORY);
+                entry.setPrincipalName(session.getPrincipal().getName());
+                entry.setComment(eventInput);
+                entries.add(entry);
+            }
+            logger.addLogEntries(entries);
         }
     }
 
@@ -253,49 +547,136 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
     }
 
     public void executeRuleBeginActions(Record record, CoreSession session) {
-        RetentionRule rule = record.getRule(session);
+        RetentionRuleSnapshot rule = getRuleSnapshot(record, session);
         if (rule != null) {
             executeRuleActions(record.getDocument(), rule.getBeginActions(), session);
         }
     }
 
     protected void executeRuleActions(DocumentModel doc, List<String> actionIds, CoreSession session) {
-        if (actionIds != null) {
-            AutomationService automationService = Framework.getService(AutomationService.class);
-            for (String operationId : actionIds) {
-                log.debug("Executing {} action on {}", () -> operationId, doc::getPathAsString);
-                // Do not lock document if already locked, nor unlock if already unlocked (would trigger an error)
-                // Also, if it's time to delete, unlock it first, etc.
-                // (more generally, be ready to handle specific operations and context)
-                switch (operationId) {
-                    case LockDocument.ID:
-                        if (doc.isLocked()) {
-                            continue;
-                        }
-                        break;
-                    case UnlockDocument.ID:
-                        if (!doc.isLocked()) {
-                            continue;
-                        }
-                        break;
-                    case DeleteDocument.ID:
-                    case TrashDocument.ID:
-                        if (doc.isLocked()) {
-                            session.removeLock(doc.getRef());
-                            doc = session.getDocument(doc.getRef());
-                        }
-                        break;
-                }
-                OperationContext context = getExecutionContext(doc, session);
-                try {
-                    automationService.run(context, operationId);
-                } catch (OperationException e) {
-                    throw new NuxeoException("Error running operation: " + operationId, e);
+        executeRuleActions(List.of(doc), actionIds, session);
+    }
+
+    /**
+     * Executes the actions on a batch of documents. An operation declaring a document list input is run once over the
+     * list of the documents it applies to, with a chain compiled once per operation. The other operations, and the
+     * chains, are run on each document with the {@code document} context variable, as for a single document.
+     *
+     * @since 2023.5
+     */
+    protected void executeRuleActions(List<DocumentModel> docs, List<String> actionIds, CoreSession session) {
+        if (actionIds == null || docs.isEmpty()) {
+            return;
+        }
+        for (String operationId : actionIds) {
+            log.debug("Executing {} action on {} documents", operationId, docs.size());
+            // Do not lock documents if already locked, nor unlock if already unlocked (would trigger an error)
+            // Also, if it's time to delete, unlock them first, etc.
+            // (more generally, be ready to handle specific operations and context)
+            List<DocumentModel> input;
+            switch (operationId) {
+                case LockDocument.ID:
+                    input = docs.stream().filter(doc -> !doc.isLocked()).collect(Collectors.toList());
+                    break;
+                case UnlockDocument.ID:
+                    input = docs.stream().filter(DocumentModel::isLocked).collect(Collectors.toList());
+                    break;
+                case DeleteDocument.ID:
+                case TrashDocument.ID:
+                    docs = unlockDocuments(docs, session);
+                    input = docs;
+                    break;
+                default:
+                    input = docs;
+            }
+            if (!input.isEmpty()) {
+                executeRuleAction(input, operationId, session);
+            }
+        }
+    }
+
+    /**
+     * Removes the locks of the locked documents, and returns the documents reloaded at once, their lock having possibly
+     * been changed by the previous actions.
+     *
+     * @since 2023.5
+     */
+    protected List<DocumentModel> unlockDocuments(List<DocumentModel> docs, CoreSession session) {
+        DocumentModelList reloaded = session.getDocuments(
+                docs.stream().map(DocumentModel::getRef).toArray(DocumentRef[]::new));
+        reloaded.stream().filter(DocumentModel::isLocked).forEach(DocumentModel::removeLock);
+        return reloaded;
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void executeRuleAction(List<DocumentModel> docs, String operationId, CoreSession session) {
+        CompiledChain chain = docs.size() == 1 ? null
+                : compiledActions.computeIfAbsent(operationId, this::compileRuleAction).orElse(null);
+        MetricName timer = RetentionMetrics.EXECUTE_RULE_ACTIONS_TIMER.tagged("operation", operationId);
+        try (Timer.Context context = registry.timer(timer).time()) {
+            if (chain == null) {
+                // a single document, or an action which may depend on the document context variable
+                AutomationService automationService = Framework.getService(AutomationService.class);
+                for (DocumentModel doc : docs) {
+                    automationService.run(getExecutionContext(doc, session), operationId);
                 }
+            } else {
+                DocumentModelList input = new DocumentModelListImpl(docs);
+                OperationContext context = new OperationContext(session);
+                context.put("documents", input);
+                context.setCommit(false); // no session save at end
+                context.setInput(input);
+                chain.invoke(context);
             }
+        } catch (OperationException e) {
+            throw new NuxeoException("Error running operation: " + operationId, e);
         }
     }
 
+    /**
+     * Compiles a chain made of the operation for a {@link DocumentModelList} input, if the operation declares such an
+     * input. Chains, and operations without input or only taking a document, are not compiled: they may rely on the
+     * {@code document} context variable, or would be run once for all the documents.
+     *
+     * @since 2023.5
+     */
+    protected Optional<CompiledChain> compileRuleAction(String operationId) {
+        AutomationService automationService = Framework.getService(AutomationService.class);
+        try {
+            OperationType type = automationService.getOperation(operationId);
+            if (type instanceof ChainTypeImpl || !acceptsDocumentList(type.getDocumentation())) {
+                log.debug("Operation {} is run on each document", operationId);
+                return Optional.empty();
+            }
+            OperationChain chain = new OperationChain("retention-" + operationId);
+            chain.add(operationId);
+            return Optional.of(automationService.compileChain(DocumentModelList.class, chain));
+        } catch (OperationException e) {
+            log.debug("Operation {} cannot be run on a list of documents", operationId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Checks whether the signature of the operation, made of input and output type pairs, has a document list input.
+     *
+     * @since 2023.5
+     */
+    protected boolean acceptsDocumentList(OperationDocumentation documentation) {
+        String[] signature = documentation.signature;
+        if (signature == null) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i += 2) {
+            if (Constants.T_DOCUMENTS.equals(signature[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected OperationContext getExecutionContext(DocumentModel doc, CoreSession session) {
         OperationContext context = new OperationContext(session);
         context.put("document", doc);
@@ -305,36 +686,167 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
     }
 
     @Override
+    public void addToLegalHoldCase(String caseId, Collection<String> docIds, Collection<String> heldDocIds,
+            String repositoryName) {
+        legalHoldCaseIndex.add(repositoryName, caseId, docIds, heldDocIds);
+    }
+
+    @Override
+    public void addToLegalHoldWithoutCase(Collection<String> docIds, String repositoryName) {
+        legalHoldCaseIndex.addWithoutCase(repositoryName, docIds);
+    }
+
+    @Override
+    public boolean removeFromLegalHoldCase(String caseId, String docId, String repositoryName) {
+        return legalHoldCaseIndex.remove(repositoryName, caseId, docId).isEmpty();
+    }
+
+    @Override
+    public void removeFromLegalHoldCases(String docId, String repositoryName) {
+        legalHoldCaseIndex.clear(repositoryName, docId);
+    }
+
+    @Override
+    public Set<String> getLegalHoldCases(String docId, String repositoryName) {
+        return legalHoldCaseIndex.getCases(repositoryName, docId);
+    }
+
+    @Override
+    public Stream<String> getLegalHoldCaseDocumentIds(String caseId, String repositoryName) {
+        return legalHoldCaseIndex.getDocumentIds(repositoryName, caseId);
+    }
+
+    @Override
+    public String releaseLegalHoldCase(String caseId, CoreSession session) {
+        LegalHoldCaseIndex.checkCaseId(caseId);
+        BulkCommand command = new BulkCommand.Builder(ReleaseLegalHoldCaseAction.ACTION_NAME, caseId,
+                session.getPrincipal().getName()).repository(session.getRepositoryName())
+                                                 .scroller(LegalHoldCaseScroll.SCROLL_NAME)
+                                                 .param(ReleaseLegalHoldCaseAction.PARAM_CASE_ID, caseId)
+                                                 .build();
+        return Framework.getService(BulkService.class).submit(command);
+    }
+
+    @Override
+    public String updateRecordStartingPoints(String ruleId, String repositoryName) {
+        String query = ruleId == null ? RECORD_WITHOUT_STARTING_POINT_QUERY
+                : String.format("%s AND %s = %s", RULE_RECORD_DOCUMENT_QUERY, RetentionConstants.RECORD_RULE_IDS_PROP,
+                        NXQL.escapeString(ruleId));
+        BulkCommand command = new BulkCommand.Builder(UpdateRecordStartingPointAction.ACTION_NAME, query,
+                SecurityConstants.SYSTEM_USERNAME).repository(repositoryName).build();
+        return Framework.getService(BulkService.class).submitTransactional(command);
+    }
+
+    @Override
+    public boolean hasRecordsWithoutStartingPoint(String repositoryName) {
+        if (startingPointsBackfilled.contains(repositoryName)) {
+            return false;
+        }
+        CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+        if (session.queryProjection(RECORD_WITHOUT_STARTING_POINT_QUERY, 1, 0).isEmpty()) {
+            startingPointsBackfilled.add(repositoryName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Submits the backfill of the starting point of the records attached before it was stored on the records. Only one
+     * cluster node submits it per repository, an interrupted backfill being resumed at the next start.
+     *
+     * @since 2023.5
+     */
+    protected void backfillRecordStartingPoints() {
+        KeyValueStore store = getKeyValueStore();
+        RepositoryService repositoryService = Framework.getService(RepositoryService.class);
+        for (String repositoryName : repositoryService.getRepositoryNames()) {
+            if (hasRecordsWithoutStartingPoint(repositoryName) && store.compareAndSet(
+                    STARTING_POINT_BACKFILL_KEY_PREFIX + repositoryName, null, "1", STARTING_POINT_BACKFILL_TTL)) {
+                String commandId = updateRecordStartingPoints(null, repositoryName);
+                log.info("Submitted backfill of the record starting points of repository {}: {}", repositoryName,
+                        commandId);
+            }
+        }
+    }
+
+    @Override
+    public RetentionStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public RetentionForecast getForecast() {
+        return forecast;
+    }
+
+    @Override
+    public String reconcileStatistics(String repositoryName) {
+        BulkCommand command = new BulkCommand.Builder(ReconcileRetentionStatisticsAction.ACTION_NAME,
+                ReconcileRetentionStatisticsAction.QUERY, SecurityConstants.SYSTEM_USERNAME).repository(repositoryName)
+                                                                                            .build();
+        return Framework.getService(BulkService.class).submit(command);
+    }
+
+    @Override
+    @Deprecated(since = "2023.5")
     public void evalRules(Map<String, Set<String>> docsToCheckAndEvents) {
+        evalRules(Framework.getService(RepositoryManager.class).getDefaultRepositoryName(), docsToCheckAndEvents);
+    }
+
+    @Override
+    public void evalRules(String repositoryName, Map<String, Set<String>> docsToCheckAndEvents) {
         if (docsToCheckAndEvents.isEmpty()) {
             return;
         }
-        RuleEvaluationWorker work = new RuleEvaluationWorker(docsToCheckAndEvents);
-        Framework.getService(WorkManager.class).schedule(work, WorkManager.Scheduling.ENQUEUE);
+        // documents already pending are evaluated by the queued work with the merged events
+        List<String> docIds = pendingRuleEvaluations.add(repositoryName, docsToCheckAndEvents);
+        int chunkSize = Integer.parseInt(Framework.getProperty(EVALUATION_CHUNK_SIZE_PROPERTY,
+                String.valueOf(DEFAULT_EVALUATION_CHUNK_SIZE)));
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        for (int i = 0; i < docIds.size(); i += chunkSize) {
+            List<String> chunk = new ArrayList<>(docIds.subList(i, Math.min(i + chunkSize, docIds.size())));
+            workManager.schedule(new RuleEvaluationWorker(repositoryName, chunk), WorkManager.Scheduling.ENQUEUE);
+        }
     }
 
-    protected boolean evaluateConditionExpression(Record record, String eventInput, CoreSession session) {
-        String expression = record.getRule(session).getStartingPointExpression();
+    protected boolean evaluateConditionExpression(Record record, String expression, String eventInput) {
         if (StringUtils.isEmpty(expression)) {
             return true;
         }
-        ELActionContext ctx = new ELActionContext(new ExpressionContext(), new ExpressionFactoryImpl());
-        record.getDocument().detach(true);
-        ctx.setCurrentDocument(record.getDocument());
-        Calendar now = Calendar.getInstance();
-        ctx.putLocalVariable("currentDate", now);
-        ctx.putLocalVariable(EVENT_BASED_RULE_INPUT, eventInput);
         // Only restricted user can fill expression and eventInput
-        return ctx.checkCondition(expression);
+        return expressionEvaluator.evaluate(expression, record.getDocument(), eventInput);
+    }
+
+    @Override
+    public Boolean evaluateConditionExpression(String expression, String eventInput) {
+        if (StringUtils.isEmpty(expression)) {
+            return Boolean.TRUE;
+        }
+        return expressionEvaluator.evaluate(expression, eventInput);
     }
 
     @Override
     public boolean applyEventBasedRules(Record record, String event, String eventInput, CoreSession session) {
-        RetentionRule rule = record.getRule(session);
+        return applyEventBasedRules(record, event, Collections.singleton(eventInput), session);
+    }
+
+    @Override
+    public boolean applyEventBasedRules(Record record, String event, Set<String> eventInputs, CoreSession session) {
+        try (Timer.Context context = registry.timer(RetentionMetrics.APPLY_EVENT_BASED_RULES_TIMER).time()) {
+            return doApplyEventBasedRules(record, event, eventInputs, session);
+        }
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected boolean doApplyEventBasedRules(Record record, String event, Set<String> eventInputs,
+            CoreSession session) {
+        RetentionRuleSnapshot rule = getRuleSnapshot(record, session);
         if (rule == null) {
             return false; // nothing to do
         }
-        String rulePath = rule.getDocument().getPathAsString(), recordPath = record.getDocument().getPathAsString();
+        String rulePath = rule.getPath(), recordPath = record.getDocument().getPathAsString();
         if (!rule.isEventBased()) {
             log.trace("Rule {} for Record {} is not event-based", rulePath, recordPath);
             return false;
@@ -359,7 +871,7 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
         boolean startNow;
         String startingPointValue = rule.getStartingPointValue();
         if (StringUtils.isNotEmpty(startingPointValue)) {
-            if (startingPointValue.equals(eventInput)) {
+            if (eventInputs.contains(startingPointValue)) {
                 log.debug("Evaluating event-based rule: startingPointEvent {} matched on event {}", startingPointEvent,
                         startingPointEvent);
                 startNow = true;
@@ -370,7 +882,7 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
             }
         } else {
             String expression = rule.getStartingPointExpression();
-            if (evaluateConditionExpression(record, eventInput, session)) {
+            if (eventInputs.stream().anyMatch(input -> evaluateConditionExpression(record, expression, input))) {
                 log.debug("Evaluating event-based rule: expression {} matched on event {}", expression,
                         startingPointEvent);
                 startNow = true;
@@ -392,37 +904,399 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
 
     @Override
     public void proceedRetentionExpired(Record record, CoreSession session) {
-        RetentionRule rule = record.getRule(session);
-        if (rule != null) {
-            executeRuleActions(record.getDocument(), rule.getEndActions(), session);
+        proceedRetentionExpired(List.of(record), session);
+    }
+
+    @Override
+    public void proceedRetentionExpired(List<Record> records, CoreSession session) {
+        Map<RetentionRuleSnapshot, List<DocumentModel>> docsByRule = new LinkedHashMap<>();
+        Map<String, Long> counters = new HashMap<>();
+        for (Record record : records) {
+            // the retention is over, the record leaves the counters of its expired retain until date
+            RetentionStatistics.getRuleCounters(record.getRuleIds(), record.getSavedRetainUntil())
+                               .forEach((counter, value) -> counters.merge(counter, -value, Long::sum));
+            RetentionRuleSnapshot rule = getRuleSnapshot(record, session);
+            if (rule != null) {
+                docsByRule.computeIfAbsent(rule, k -> new ArrayList<>()).add(record.getDocument());
+            }
         }
+        statistics.update(session.getRepositoryName(), counters);
+        boolean massDisposition = Framework.isBooleanPropertyTrue(MASS_DISPOSITION_PROPERTY);
+        docsByRule.forEach((rule, docs) -> {
+            log.debug("Executing end actions of rule {} on {} records", rule::getPath, docs::size);
+            List<String> actionIds = rule.getEndActions();
+            int terminal = massDisposition && actionIds != null ? getDispositionActionIndex(actionIds) : -1;
+            if (terminal < 0) {
+                executeRuleActions(docs, actionIds, session);
+            } else {
+                executeRuleActions(docs, actionIds.subList(0, terminal), session);
+                if (terminal < actionIds.size() - 1) {
+                    log.warn("Ignoring end actions {} following {} of rule {} in mass disposition mode",
+                            actionIds.subList(terminal + 1, actionIds.size()), actionIds.get(terminal),
+                            rule.getPath());
+                }
+                unlockDocuments(docs, session);
+                markForDisposition(session.getRepositoryName(), actionIds.get(terminal), docs);
+            }
+        });
     }
 
-    protected List<String> acceptedEvents;
+    /**
+     * Returns the index of the first delete or trash action, the actions after it being useless, or -1 if there is
+     * none.
+     *
+     * @since 2023.5
+     */
+    protected int getDispositionActionIndex(List<String> actionIds) {
+        for (int i = 0; i < actionIds.size(); i++) {
+            String operationId = actionIds.get(i);
+            if (DeleteDocument.ID.equals(operationId) || TrashDocument.ID.equals(operationId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the expired records as waiting for their disposition by the given action, once the current transaction is
+     * committed, so that they are disposed of together by the next {@link #disposeRecords(String)}.
+     *
+     * @since 2023.5
+     */
+    protected void markForDisposition(String repositoryName, String operationId, List<DocumentModel> docs) {
+        String prefix = getDispositionKeyPrefix(repositoryName, operationId);
+        List<String> docIds = docs.stream().map(DocumentModel::getId).collect(Collectors.toList());
+        TransactionHelper.registerSynchronization(new Synchronization() {
+
+            @Override
+            public void beforeCompletion() {
+                // nothing to do
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    KeyValueStore store = getKeyValueStore();
+                    docIds.forEach(docId -> store.put(prefix + docId, DISPOSITION_MARKER));
+                    registry.meter(RetentionMetrics.DISPOSITION_METER.tagged("action", operationId))
+                            .mark(docIds.size());
+                }
+            }
+        });
+    }
+
+    protected String getDispositionKeyPrefix(String repositoryName, String operationId) {
+        return DISPOSITION_KEY_PREFIX + repositoryName + ":" + operationId + ":";
+    }
+
+    @Override
+    public void disposeRecords(String repositoryName) {
+        int bucketSize = Integer.parseInt(Framework.getProperty(DISPOSITION_BUCKET_SIZE_PROPERTY,
+                String.valueOf(DEFAULT_DISPOSITION_BUCKET_SIZE)));
+        BulkService bulkService = Framework.getService(BulkService.class);
+        for (String operationId : List.of(TrashDocument.ID, DeleteDocument.ID)) {
+            boolean marked;
+            try (Stream<String> docIds = getRecordIdsToDispose(operationId, repositoryName)) {
+                marked = docIds.findAny().isPresent();
+            }
+            if (!marked) {
+                continue;
+            }
+            BulkCommand.Builder builder;
+            if (TrashDocument.ID.equals(operationId)) {
+                builder = new BulkCommand.Builder(TrashAction.ACTION_NAME, operationId,
+                        SecurityConstants.SYSTEM_USERNAME).param(TrashAction.PARAM_NAME, Boolean.TRUE);
+            } else {
+                builder = new BulkCommand.Builder(DeletionAction.ACTION_NAME, operationId,
+                        SecurityConstants.SYSTEM_USERNAME);
+            }
+            String commandId = bulkService.submit(builder.repository(repositoryName)
+                                                         .scroller(DispositionScroll.SCROLL_NAME)
+                                                         .bucket(bucketSize)
+                                                         .build());
+            log.debug("Submitted disposition {} of the marked expired records: {}", operationId, commandId);
+        }
+    }
+
+    @Override
+    public Stream<String> getRecordIdsToDispose(String operationId, String repositoryName) {
+        String prefix = getDispositionKeyPrefix(repositoryName, operationId);
+        return getKeyValueStore().keyStream(prefix).map(key -> key.substring(prefix.length()));
+    }
+
+    @Override
+    public List<String> takeRecordsToDispose(String operationId, List<String> docIds, String repositoryName) {
+        KeyValueStore store = getKeyValueStore();
+        String prefix = getDispositionKeyPrefix(repositoryName, operationId);
+        // the marker is removed first, so that a record is only taken by one disposition
+        List<String> taken = docIds.stream()
+                                   .filter(docId -> store.compareAndSet(prefix + docId, DISPOSITION_MARKER, null))
+                                   .collect(Collectors.toList());
+        if (taken.isEmpty()) {
+            return taken;
+        }
+        String query = String.format(RetentionConstants.DISPOSABLE_RECORDS_QUERY,
+                taken.stream().map(NXQL::escapeString).collect(Collectors.joining(", ")));
+        if (TrashDocument.ID.equals(operationId)) {
+            query += " AND ecm:isTrashed = 0";
+        }
+        String finalQuery = query;
+        return TransactionHelper.runInTransaction(() -> {
+            CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+            return session.queryProjection(finalQuery, 0, 0)
+                          .stream()
+                          .map(m -> (String) m.get(NXQL.ECM_UUID))
+                          .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected KeyValueStoreProvider getKeyValueStore() {
+        return (KeyValueStoreProvider) Framework.getService(KeyValueService.class)
+                                                .getKeyValueStore(RetentionConstants.KV_STORE_NAME);
+    }
+
+    @Override
+    public RetentionRuleSnapshot getRuleSnapshot(String ruleId, CoreSession session) {
+        RetentionRuleSnapshot snapshot = ruleSnapshots.get(ruleId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        IdRef ruleRef = new IdRef(ruleId);
+        if (!session.exists(ruleRef)) {
+            log.trace("Rule {} does not exist", ruleRef);
+            return null;
+        }
+        DocumentModel ruleDoc = session.getDocument(ruleRef);
+        if (!ruleDoc.hasFacet(RetentionConstants.RETENTION_RULE_FACET)) {
+            log.trace("Document {} is not a rule", ruleDoc::getPathAsString);
+            return null;
+        }
+        return getRuleSnapshot(ruleDoc.getAdapter(RetentionRule.class));
+    }
+
+    @Override
+    public RetentionRuleSnapshot getRuleSnapshot(RetentionRule rule) {
+        DocumentModel ruleDoc = rule.getDocument();
+        return ruleSnapshots.compute(ruleDoc.getId(),
+                (id, snapshot) -> snapshot != null && snapshot.getChangeToken() != null
+                        && snapshot.getChangeToken().equals(ruleDoc.getChangeToken()) ? snapshot
+                                : new RetentionRuleSnapshot(rule));
+    }
+
+    @Override
+    public RetentionRuleSnapshot getRuleSnapshot(Record record, CoreSession session) {
+        for (String ruleId : record.getRuleIds()) {
+            RetentionRuleSnapshot rule = getRuleSnapshot(ruleId, session);
+            if (rule == null) {
+                continue;
+            }
+            if (!rule.isEnabled()) {
+                log.debug("Rule {} id disabled", rule::getPath);
+                continue;
+            }
+            return rule;
+        }
+        log.debug("No active rules found for {}", () -> record.getDocument().getPathAsString());
+        return null;
+    }
+
+    @Override
+    public List<RetentionRuleSnapshot> getEventBasedRules(String eventName, String repositoryName) {
+        return eventBasedRules.computeIfAbsent(repositoryName, this::computeEventBasedRules)
+                              .getOrDefault(eventName, Collections.emptyList());
+    }
+
+    /**
+     * Loads the enabled event-based rules of the repository and indexes them by starting point event.
+     *
+     * @since 2023.5
+     */
+    protected Map<String, List<RetentionRuleSnapshot>> computeEventBasedRules(String repositoryName) {
+        log.debug("Indexing event-based rules of repository {}", repositoryName);
+        CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+        return session.queryProjection(ACTIVE_EVENT_BASED_RETENTION_RULES_QUERY, 0, 0)
+                      .stream()
+                      .map(m -> getRuleSnapshot((String) m.get(NXQL.ECM_UUID), session))
+                      .filter(rule -> rule != null && StringUtils.isNotBlank(rule.getStartingPointEvent()))
+                      .collect(Collectors.groupingBy(RetentionRuleSnapshot::getStartingPointEvent,
+                              Collectors.toUnmodifiableList()));
+    }
+
+    @Override
+    public List<RetentionRuleSnapshot> getAutoRules(String docType, String repositoryName) {
+        Map<String, List<RetentionRuleSnapshot>> rulesByDocType = autoRules.computeIfAbsent(repositoryName,
+                this::computeAutoRules);
+        List<RetentionRuleSnapshot> rules = rulesByDocType.getOrDefault(docType, Collections.emptyList());
+        List<RetentionRuleSnapshot> anyTypeRules = rulesByDocType.getOrDefault(ANY_DOC_TYPE, Collections.emptyList());
+        if (anyTypeRules.isEmpty()) {
+            return rules;
+        } else if (rules.isEmpty()) {
+            return anyTypeRules;
+        }
+        return Stream.concat(rules.stream(), anyTypeRules.stream()).collect(Collectors.toList());
+    }
+
+    /**
+     * Loads the enabled auto rules of the repository and indexes them by accepted document type.
+     *
+     * @since 2023.5
+     */
+    protected Map<String, List<RetentionRuleSnapshot>> computeAutoRules(String repositoryName) {
+        log.debug("Indexing auto rules of repository {}", repositoryName);
+        CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+        Map<String, List<RetentionRuleSnapshot>> rules = new HashMap<>();
+        session.queryProjection(ACTIVE_AUTO_RETENTION_RULES_QUERY, 0, 0)
+               .stream()
+               .map(m -> getRuleSnapshot((String) m.get(NXQL.ECM_UUID), session))
+               .filter(Objects::nonNull)
+               .forEach(rule -> {
+                   List<String> docTypes = rule.getDocTypes().isEmpty() ? List.of(ANY_DOC_TYPE) : rule.getDocTypes();
+                   docTypes.forEach(docType -> rules.computeIfAbsent(docType, k -> new ArrayList<>()).add(rule));
+               });
+        return rules.entrySet()
+                    .stream()
+                    .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> List.copyOf(e.getValue())));
+    }
+
+    @Override
+    public void invalidateRule(String ruleId) {
+        RetentionInvalidation invalidation = new RetentionInvalidation(Kind.RULE, ruleId);
+        propagateInvalidation(invalidation);
+        if (TransactionHelper.isTransactionActive()) {
+            // a concurrent transaction may cache the previous state of the rule until this one is committed
+            TransactionHelper.registerSynchronization(new Synchronization() {
+
+                @Override
+                public void beforeCompletion() {
+                    // nothing to do
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        propagateInvalidation(invalidation);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Applies the invalidation on this node then sends it to the other cluster nodes.
+     *
+     * @since 2023.5
+     */
+    protected void propagateInvalidation(RetentionInvalidation invalidation) {
+        handleInvalidation(invalidation);
+        if (invalidator != null) {
+            invalidator.sendMessage(invalidation);
+        }
+    }
+
+    /**
+     * Applies an invalidation coming from this node or from another cluster node.
+     *
+     * @since 2023.5
+     */
+    protected void handleInvalidation(RetentionInvalidation invalidation) {
+        log.trace("Handling {}", invalidation);
+        switch (invalidation.getKind()) {
+            case RULE:
+                ruleSnapshots.remove(invalidation.getId());
+                eventBasedRules.clear();
+                autoRules.clear();
+                break;
+            case ACCEPTED_EVENTS:
+                invalidateAcceptedEvents();
+                // the listener registration has to be refreshed for the new events to be received
+                getAcceptedEventSet();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown invalidation: " + invalidation);
+        }
+    }
+
+    /**
+     * The accepted events, {@code null} when they have to be recomputed. The stamp is incremented on each
+     * invalidation, so that a set computed concurrently to an invalidation is not kept.
+     *
+     * @since 2023.5
+     */
+    protected final AtomicStampedReference<Set<String>> acceptedEvents = new AtomicStampedReference<>(null, 0);
 
     @Override
     public List<String> getAcceptedEvents() {
-        return acceptedEvents != null ? acceptedEvents : Collections.emptyList();
+        return List.copyOf(getAcceptedEventSet());
     }
 
-    protected List<String> computeAcceptedEvents() {
+    @Override
+    public Set<String> getAcceptedEventSet() {
+        int[] stamp = new int[1];
+        Set<String> events = acceptedEvents.get(stamp);
+        if (events != null) {
+            return events;
+        }
+        events = computeAcceptedEvents();
+        if (acceptedEvents.compareAndSet(null, events, stamp[0], stamp[0])) {
+            registerDocumentEventListenerEvents(events);
+        }
+        return events;
+    }
+
+    protected Set<String> computeAcceptedEvents() {
         DirectoryService directoryService = Framework.getService(DirectoryService.class);
         Directory dir = directoryService.getDirectory(RetentionConstants.EVENTS_DIRECTORY_NAME);
         if (dir == null) {
-            return Collections.emptyList();
+            return Collections.emptySet();
         }
         try (Session session = dir.getSession()) {
             Map<String, Serializable> filter = new HashMap<>();
             filter.put(RetentionConstants.OBSOLETE_FIELD_ID, 0L);
-            return session.getProjection(filter, session.getIdField());
+            return Set.copyOf(session.getProjection(filter, session.getIdField()));
+        }
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void invalidateAcceptedEvents() {
+        int[] stamp = new int[1];
+        Set<String> events;
+        do {
+            events = acceptedEvents.get(stamp);
+        } while (!acceptedEvents.compareAndSet(events, null, stamp[0], stamp[0] + 1));
+    }
+
+    /**
+     * Registers the accepted events as the events of the {@link RetentionDocumentEventListener} contribution, so that
+     * the event service does not hand over the other events to the listener. The event set of the contribution is
+     * replaced by an immutable copy, the event service never seeing a set being modified.
+     *
+     * @since 2023.5
+     */
+    protected void registerDocumentEventListenerEvents(Collection<String> events) {
+        EventListenerDescriptor descriptor = Framework.getService(EventService.class)
+                                                      .getEventListener(DOCUMENT_EVENT_LISTENER_NAME);
+        if (descriptor == null) {
+            log.warn("Cannot register the accepted events on listener {}", DOCUMENT_EVENT_LISTENER_NAME);
+            return;
         }
+        Set<String> registeredEvents = Set.copyOf(events);
+        descriptor.setEvents(registeredEvents);
+        log.debug("Registered events {} on listener {}", registeredEvents, DOCUMENT_EVENT_LISTENER_NAME);
     }
 
     @Override
     public void invalidate() {
-        synchronized (this) {
-            acceptedEvents = null;
-        }
+        propagateInvalidation(new RetentionInvalidation(Kind.ACCEPTED_EVENTS, null));
+        ruleSnapshots.clear();
+        eventBasedRules.clear();
+        autoRules.clear();
+        startingPointsBackfilled.clear();
+        expressionEvaluator.invalidate();
     }
 
     @Override
@@ -433,8 +1307,30 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
 
     @Override
     public void start(ComponentContext context) {
+        long expressionCacheMaxSize = Long.parseLong(Framework.getProperty(EXPRESSION_CACHE_MAX_SIZE_PROPERTY,
+                String.valueOf(DEFAULT_EXPRESSION_CACHE_MAX_SIZE)));
+        expressionEvaluator = new RetentionExpressionEvaluator(expressionCacheMaxSize);
+        registry.register(RetentionMetrics.EXPRESSION_CACHE_SIZE_GAUGE,
+                (Gauge<Long>) expressionEvaluator::getCacheSize);
+        registry.register(RetentionMetrics.EXPRESSION_CACHE_HIT_RATE_GAUGE,
+                (Gauge<Double>) expressionEvaluator::getCacheHitRate);
+        registry.register(RetentionMetrics.EVALUATION_QUEUE_DEPTH_GAUGE, (Gauge<Long>) this::getEvaluationQueueDepth);
+        registry.register(RetentionMetrics.INDETERMINATE_RECORDS_GAUGE,
+                new CachedGauge<Long>(INDETERMINATE_RECORDS_REFRESH_MINUTES, TimeUnit.MINUTES) {
+                    @Override
+                    protected Long loadValue() {
+                        return countIndeterminateRecords();
+                    }
+                });
+        if (Framework.getService(ClusterService.class).isEnabled()) {
+            invalidator = new RetentionInvalidator(this::handleInvalidation);
+            invalidator.initPubSub();
+        }
+        if (RetentionExpirationScheduler.isEnabled()) {
+            expirationScheduler = new RetentionExpirationScheduler();
+        }
         Framework.doPrivileged(() -> {
-            acceptedEvents = computeAcceptedEvents();
+            getAcceptedEventSet();
             UserManager userManager = Framework.getService(UserManager.class);
             if (userManager.getGroup(RetentionConstants.RECORD_MANAGER_GROUP_NAME) == null) {
                 DocumentModel groupModel = userManager.getBareGroupModel();
@@ -446,7 +1342,62 @@ public class RetentionManagerImpl extends DefaultComponent implements RetentionM
                 userManager.createGroup(groupModel);
                 log.debug("Created new {} group", RetentionConstants.RECORD_MANAGER_GROUP_NAME);
             }
+            TransactionHelper.runInTransaction(this::backfillRecordStartingPoints);
         });
     }
 
+    /**
+     * Counts the records of all the repositories waiting for an event to start their retention.
+     *
+     * @since 2023.5
+     */
+    protected long countIndeterminateRecords() {
+        return Framework.doPrivileged(() -> TransactionHelper.runInTransaction(() -> {
+            long count = 0;
+            RepositoryService repositoryService = Framework.getService(RepositoryService.class);
+            for (String repositoryName : repositoryService.getRepositoryNames()) {
+                CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+                count += session.queryProjection(INDETERMINATE_RECORDS_QUERY, 1, 0, true).totalSize();
+            }
+            return count;
+        }));
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected long getEvaluationQueueDepth() {
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        return workManager.getMetrics(RuleEvaluationWorker.CATEGORY).getScheduled().longValue();
+    }
+
+    @Override
+    public <T> T getAdapter(Class<T> adapter) {
+        if (adapter == RetentionExpirationScheduler.class) {
+            // null when the scheduler is disabled
+            return adapter.cast(expirationScheduler);
+        }
+        return super.getAdapter(adapter);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        registry.remove(RetentionMetrics.EXPRESSION_CACHE_SIZE_GAUGE);
+        registry.remove(RetentionMetrics.EXPRESSION_CACHE_HIT_RATE_GAUGE);
+        registry.remove(RetentionMetrics.EVALUATION_QUEUE_DEPTH_GAUGE);
+        registry.remove(RetentionMetrics.INDETERMINATE_RECORDS_GAUGE);
+        if (expirationScheduler != null) {
+            expirationScheduler.stop();
+            expirationScheduler = null;
+        }
+        if (invalidator != null) {
+            invalidator.close();
+            invalidator = null;
+        }
+        ruleSnapshots.clear();
+        eventBasedRules.clear();
+        invalidateAcceptedEvents();
+        compiledActions.clear();
+    }
+
 }
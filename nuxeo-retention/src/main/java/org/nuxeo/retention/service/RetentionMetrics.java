@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+
+/**
+ * Metrics of the retention, published under the {@code nuxeo.retention} scope of the Nuxeo metrics registry so that
+ * they are exposed by the configured reporters.
+ *
+ * @since 2023.5
+ */
+public class RetentionMetrics {
+
+    public static final MetricName ATTACH_RULE_TIMER = MetricName.build("nuxeo", "retention", "attachRule");
+
+    public static final MetricName APPLY_EVENT_BASED_RULES_TIMER = MetricName.build("nuxeo", "retention",
+            "applyEventBasedRules");
+
+    /** Tagged by operation id. */
+    public static final MetricName EXECUTE_RULE_ACTIONS_TIMER = MetricName.build("nuxeo", "retention",
+            "executeRuleActions");
+
+    /** Tagged by computation and status, applied or skipped. */
+    public static final MetricName COMPUTATION_RECORDS_COUNTER = MetricName.build("nuxeo", "retention", "computation",
+            "records");
+
+    /** Records matched by the queries of the business events. */
+    public static final MetricName BUSINESS_EVENT_RECORDS_HISTOGRAM = MetricName.build("nuxeo", "retention", "events",
+            "records");
+
+    /** Records whose retention is indeterminate, waiting for an event. */
+    public static final MetricName INDETERMINATE_RECORDS_GAUGE = MetricName.build("nuxeo", "retention", "records",
+            "indeterminate");
+
+    /** Business events dropped before any query, tagged by stage. */
+    public static final MetricName DROPPED_EVENTS_COUNTER = MetricName.build("nuxeo", "retention", "events",
+            "dropped");
+
+    /** Documents whose rule evaluation is pending. */
+    public static final MetricName EVALUATION_QUEUE_DEPTH_GAUGE = MetricName.build("nuxeo", "retention",
+            "evaluation", "queue", "depth");
+
+    /** Evaluation of a chunk of documents by a rule evaluation worker. */
+    public static final MetricName EVALUATION_CHUNK_TIMER = MetricName.build("nuxeo", "retention", "evaluation",
+            "chunk", "latency");
+
+    public static final MetricName EXPRESSION_CACHE_SIZE_GAUGE = MetricName.build("nuxeo", "retention",
+            "expression", "cache", "size");
+
+    public static final MetricName EXPRESSION_CACHE_HIT_RATE_GAUGE = MetricName.build("nuxeo", "retention",
+            "expression", "cache", "hitRate");
+
+    /** Expired records waiting for their disposition, tagged by action. */
+    public static final MetricName DISPOSITION_METER = MetricName.build("nuxeo", "retention", "disposition");
+
+    public static final String APPLIED = "applied";
+
+    public static final String SKIPPED = "skipped";
+
+    private RetentionMetrics() {
+        // utility class
+    }
+
+    public static MetricRegistry getRegistry() {
+        return SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+    }
+
+    /**
+     * Counts the records applied and skipped by a bulk computation.
+     */
+    public static void countRecords(String computation, long applied, long skipped) {
+        MetricRegistry registry = getRegistry();
+        MetricName name = COMPUTATION_RECORDS_COUNTER.tagged("computation", computation);
+        registry.counter(name.tagged("status", APPLIED)).inc(applied);
+        registry.counter(name.tagged("status", SKIPPED)).inc(skipped);
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.DONE_STREAM;
+import static org.nuxeo.lib.stream.computation.AbstractComputation.INPUT_1;
+
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.bulk.BulkCodecs;
+import org.nuxeo.ecm.core.bulk.message.BulkStatus;
+import org.nuxeo.lib.stream.computation.AbstractComputation;
+import org.nuxeo.lib.stream.computation.ComputationContext;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.computation.Topology;
+import org.nuxeo.retention.actions.EvalInputEventBasedRuleAction;
+import org.nuxeo.runtime.stream.StreamProcessorTopology;
+
+/**
+ * Stream processor publishing the {@link RetentionMetrics} computed from the completed bulk commands of the retention.
+ *
+ * @since 2023.5
+ */
+public class RetentionMetricsProcessor implements StreamProcessorTopology {
+
+    public static final String BUSINESS_EVENT_RECORDS_COMPUTATION_NAME = "retention/businessEventRecords";
+
+    @Override
+    public Topology getTopology(Map<String, String> options) {
+        return Topology.builder()
+                       .addComputation(BusinessEventRecordsComputation::new, List.of(INPUT_1 + ":" + DONE_STREAM))
+                       .build();
+    }
+
+    /**
+     * Publishes the number of records matched by each business event once its {@link EvalInputEventBasedRuleAction}
+     * command is done.
+     */
+    public static class BusinessEventRecordsComputation extends AbstractComputation {
+
+        public BusinessEventRecordsComputation() {
+            super(BUSINESS_EVENT_RECORDS_COMPUTATION_NAME, 1, 0);
+        }
+
+        @Override
+        public void processRecord(ComputationContext context, String inputStreamName, Record record) {
+            BulkStatus status = BulkCodecs.getStatusCodec().decode(record.getData());
+            if (EvalInputEventBasedRuleAction.ACTION_NAME.equals(status.getAction())) {
+                RetentionMetrics.getRegistry()
+                                .histogram(RetentionMetrics.BUSINESS_EVENT_RECORDS_HISTOGRAM)
+                                .update(status.getTotal());
+            }
+            context.askForCheckpoint();
+        }
+    }
+
+}
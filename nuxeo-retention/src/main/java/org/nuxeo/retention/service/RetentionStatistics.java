@@ -0,0 +1,367 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.service;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.kv.KeyValueStoreProvider;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Retention statistics of a repository, stored as counters in a {@link KeyValueStore} so that they can be read without
+ * any repository query nor Elasticsearch aggregate.
+ * <p>
+ * The counters are updated incrementally when rules are attached or unattached, when a retention starts or expires and
+ * when legal holds are set or removed. The retain until counters are fed by the retention events of the documents, each
+ * event moving the document from the counter of its previous retain until date to the counter of the new one, so that
+ * no state is kept by document.
+ * <p>
+ * These updates are applied once the repository transaction is committed, so that a rolled back or retried transaction
+ * does not apply them. As they are still not part of that transaction, the counters may drift, they are periodically
+ * recomputed by the {@link org.nuxeo.retention.actions.ReconcileRetentionStatisticsAction} bulk action.
+ * <p>
+ * The counters live in a generation of the repository, the reconciliation computing a new generation which replaces the
+ * current one at once. The updates of the documents scanned by the reconciliation before being changed, and the ones
+ * applied to the current generation while it is being replaced, are lost until the next reconciliation.
+ * <p>
+ * The following counters are maintained:
+ * <ul>
+ * <li>{@code rule:<ruleId>}: records under retention by the rule
+ * <li>{@code legalHolds}: documents under legal hold
+ * <li>{@code indeterminate}: documents retained indeterminately, waiting for an event
+ * <li>{@code horizon:<yyyy-MM-dd>:<ruleId>}: documents whose retention expires during the day, by rule, from which
+ * the {@link RetentionForecast} and the expirations by month are derived
+ * </ul>
+ *
+ * @since 2023.5
+ */
+public class RetentionStatistics {
+
+    public static final String RULES = "rules";
+
+    public static final String LEGAL_HOLDS = "legalHolds";
+
+    public static final String INDETERMINATE = "indeterminate";
+
+    public static final String HORIZON = "horizon";
+
+    public static final String RECONCILED = "reconciled";
+
+    /**
+     * Rule of the documents retained without any retention rule.
+     */
+    public static final String NO_RULE = "none";
+
+    protected static final String KEY_PREFIX = "statistics:";
+
+    protected static final String RECONCILIATION_KEY_PREFIX = "statisticsReconciliation:";
+
+    protected static final String GENERATION_KEY_PREFIX = "statisticsGeneration:";
+
+    /**
+     * Generation of the counters of a repository never reconciled.
+     */
+    protected static final String DEFAULT_GENERATION = "0";
+
+    protected static final String KEY_SEPARATOR = ":";
+
+    protected static final String RULE_COUNTER_PREFIX = "rule:";
+
+    protected static final String HORIZON_COUNTER_PREFIX = "horizon:";
+
+    protected static final DateTimeFormatter HORIZON_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE.withZone(
+            ZoneId.systemDefault());
+
+    protected static final int HORIZON_MONTH_LENGTH = "yyyy-MM".length();
+
+    /**
+     * Time to live of the counters of a reconciliation, in seconds, in case it never completes.
+     */
+    protected static final long RECONCILIATION_TTL = 7 * 24 * 60 * 60;
+
+    public static String getRuleCounter(String ruleId) {
+        return RULE_COUNTER_PREFIX + ruleId;
+    }
+
+    /**
+     * Returns the counter of the retain until date: the indeterminate counter, the horizon counter of the day and first
+     * rule, or {@code null} if there is no retention.
+     */
+    public static String getRetainUntilCounter(Calendar retainUntil, List<String> ruleIds) {
+        if (retainUntil == null) {
+            return null;
+        }
+        if (retainUntil.compareTo(CoreSession.RETAIN_UNTIL_INDETERMINATE) == 0) {
+            return INDETERMINATE;
+        }
+        String ruleId = ruleIds == null || ruleIds.isEmpty() ? NO_RULE : ruleIds.get(0);
+        return HORIZON_COUNTER_PREFIX + HORIZON_FORMATTER.format(retainUntil.toInstant()) + KEY_SEPARATOR + ruleId;
+    }
+
+    /**
+     * Returns the rule counters of a record, the retain until counter being fed by the retention events.
+     */
+    public static Map<String, Long> getRuleCounters(List<String> ruleIds, Calendar retainUntil) {
+        Map<String, Long> counters = new HashMap<>();
+        if (retainUntil != null) {
+            ruleIds.forEach(ruleId -> counters.put(getRuleCounter(ruleId), 1L));
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the counters of a document, as computed by the reconciliation or left when its rule is unattached.
+     */
+    public static Map<String, Long> getCounters(List<String> ruleIds, Calendar retainUntil, boolean legalHold) {
+        Map<String, Long> counters = getRuleCounters(ruleIds, retainUntil);
+        String retainUntilCounter = getRetainUntilCounter(retainUntil, ruleIds);
+        if (retainUntilCounter != null) {
+            counters.put(retainUntilCounter, 1L);
+        }
+        if (legalHold) {
+            counters.put(LEGAL_HOLDS, 1L);
+        }
+        return counters;
+    }
+
+    protected KeyValueStoreProvider getStore() {
+        KeyValueService keyValueService = Framework.getService(KeyValueService.class);
+        return (KeyValueStoreProvider) keyValueService.getKeyValueStore(RetentionConstants.KV_STORE_NAME);
+    }
+
+    protected String getGenerationKey(String repositoryName) {
+        return GENERATION_KEY_PREFIX + repositoryName;
+    }
+
+    protected String getGeneration(String repositoryName) {
+        String generation = getStore().getString(getGenerationKey(repositoryName));
+        return generation == null ? DEFAULT_GENERATION : generation;
+    }
+
+    protected String getKeyPrefix(String repositoryName) {
+        return getKeyPrefix(repositoryName, getGeneration(repositoryName));
+    }
+
+    protected String getKeyPrefix(String repositoryName, String generation) {
+        return KEY_PREFIX + repositoryName + KEY_SEPARATOR + generation + KEY_SEPARATOR;
+    }
+
+    protected String getReconciliationKeyPrefix(String repositoryName, String commandId) {
+        return RECONCILIATION_KEY_PREFIX + repositoryName + KEY_SEPARATOR + commandId + KEY_SEPARATOR;
+    }
+
+    /**
+     * Adds the deltas to the counters, once the current transaction is committed if there is one.
+     */
+    public void update(String repositoryName, Map<String, Long> deltas) {
+        Map<String, Long> changes = deltas.entrySet()
+                                          .stream()
+                                          .filter(e -> e.getKey() != null && e.getValue() != 0)
+                                          .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (!changes.isEmpty()) {
+            runAfterCommit(() -> apply(repositoryName, changes));
+        }
+    }
+
+    protected void apply(String repositoryName, Map<String, Long> deltas) {
+        KeyValueStore store = getStore();
+        String prefix = getKeyPrefix(repositoryName);
+        deltas.forEach((counter, delta) -> store.addAndGet(prefix + counter, delta));
+    }
+
+    public void update(String repositoryName, String counter, long delta) {
+        update(repositoryName, counter == null ? Map.of() : Map.of(counter, delta));
+    }
+
+    /**
+     * Moves a document from the counter of its previous retain until date to the counter of the new one, once the
+     * current transaction is committed if there is one.
+     *
+     * @param previous the previous retain until date, {@code null} if the document was not retained
+     * @param retainUntil the new retain until date, {@code null} if the document is not retained anymore
+     * @param ruleIds the rules attached to the document
+     */
+    public void updateRetainUntil(String repositoryName, Calendar previous, Calendar retainUntil,
+            List<String> ruleIds) {
+        String previousCounter = getRetainUntilCounter(previous, ruleIds);
+        String counter = getRetainUntilCounter(retainUntil, ruleIds);
+        if (Objects.equals(previousCounter, counter)) {
+            return;
+        }
+        Map<String, Long> deltas = new HashMap<>();
+        if (previousCounter != null) {
+            deltas.put(previousCounter, -1L);
+        }
+        if (counter != null) {
+            deltas.put(counter, 1L);
+        }
+        update(repositoryName, deltas);
+    }
+
+    protected void runAfterCommit(Runnable runnable) {
+        if (!TransactionHelper.isTransactionActive()) {
+            runnable.run();
+            return;
+        }
+        TransactionHelper.registerSynchronization(new Synchronization() {
+
+            @Override
+            public void beforeCompletion() {
+                // nothing to do
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the statistics of the repository: the records by rule, the legal holds, the indeterminate retentions, the
+     * retentions expiring by month, and the date of the last reconciliation.
+     */
+    public Map<String, Serializable> get(String repositoryName) {
+        KeyValueStoreProvider store = getStore();
+        String prefix = getKeyPrefix(repositoryName);
+        TreeMap<String, Long> rules = new TreeMap<>();
+        TreeMap<String, Long> horizon = new TreeMap<>();
+        long legalHolds = 0;
+        long indeterminate = 0;
+        try (Stream<String> keys = store.keyStream(prefix)) {
+            for (String key : keys.collect(Collectors.toList())) {
+                String counter = key.substring(prefix.length());
+                if (RECONCILED.equals(counter)) {
+                    continue;
+                }
+                Long value = store.getLong(key);
+                if (value == null || value <= 0) {
+                    continue;
+                }
+                if (counter.startsWith(RULE_COUNTER_PREFIX)) {
+                    rules.put(counter.substring(RULE_COUNTER_PREFIX.length()), value);
+                } else if (counter.startsWith(HORIZON_COUNTER_PREFIX)) {
+                    String month = counter.substring(HORIZON_COUNTER_PREFIX.length(),
+                            HORIZON_COUNTER_PREFIX.length() + HORIZON_MONTH_LENGTH);
+                    horizon.merge(month, value, Long::sum);
+                } else if (LEGAL_HOLDS.equals(counter)) {
+                    legalHolds = value;
+                } else if (INDETERMINATE.equals(counter)) {
+                    indeterminate = value;
+                }
+            }
+        }
+        Map<String, Serializable> statistics = new HashMap<>();
+        statistics.put(RULES, rules);
+        statistics.put(LEGAL_HOLDS, legalHolds);
+        statistics.put(INDETERMINATE, indeterminate);
+        statistics.put(HORIZON, horizon);
+        statistics.put(RECONCILED, store.getString(prefix + RECONCILED));
+        return statistics;
+    }
+
+    /**
+     * Returns the horizon counters of the repository, by {@code <yyyy-MM-dd>:<ruleId>}.
+     */
+    public Map<String, Long> getHorizon(String repositoryName) {
+        KeyValueStoreProvider store = getStore();
+        String prefix = getKeyPrefix(repositoryName) + HORIZON_COUNTER_PREFIX;
+        Map<String, Long> horizon = new HashMap<>();
+        try (Stream<String> keys = store.keyStream(prefix)) {
+            for (String key : keys.collect(Collectors.toList())) {
+                Long value = store.getLong(key);
+                if (value != null && value > 0) {
+                    horizon.put(key.substring(prefix.length()), value);
+                }
+            }
+        }
+        return horizon;
+    }
+
+    /**
+     * Adds the counters of a batch of documents to the ones computed by the reconciliation.
+     */
+    public void addReconciliation(String repositoryName, String commandId, Map<String, Long> counters) {
+        KeyValueStore store = getStore();
+        String prefix = getReconciliationKeyPrefix(repositoryName, commandId);
+        counters.forEach((counter, value) -> {
+            String key = prefix + counter;
+            for (;;) {
+                String current = store.getString(key);
+                long sum = (current == null ? 0 : Long.parseLong(current)) + value;
+                if (store.compareAndSet(key, current, String.valueOf(sum), RECONCILIATION_TTL)) {
+                    break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the counters by the ones computed by the completed reconciliation: they are written to a new generation
+     * which then atomically replaces the current one.
+     */
+    public void completeReconciliation(String repositoryName, String commandId) {
+        KeyValueStoreProvider store = getStore();
+        String generationKey = getGenerationKey(repositoryName);
+        String generation = store.getString(generationKey);
+        String prefix = getKeyPrefix(repositoryName, commandId);
+        String reconciliationPrefix = getReconciliationKeyPrefix(repositoryName, commandId);
+        try (Stream<String> keys = store.keyStream(reconciliationPrefix)) {
+            keys.collect(Collectors.toList()).forEach(key -> {
+                store.put(prefix + key.substring(reconciliationPrefix.length()), store.getLong(key));
+                store.put(key, (String) null);
+            });
+        }
+        store.put(prefix + RECONCILED, Instant.now().toString());
+        if (store.compareAndSet(generationKey, generation, commandId)) {
+            deleteKeys(store, getKeyPrefix(repositoryName, generation == null ? DEFAULT_GENERATION : generation));
+        } else {
+            // another reconciliation completed meanwhile
+            deleteKeys(store, prefix);
+        }
+    }
+
+    protected void deleteKeys(KeyValueStoreProvider store, String prefix) {
+        try (Stream<String> keys = store.keyStream(prefix)) {
+            keys.collect(Collectors.toList()).forEach(key -> store.put(key, (String) null));
+        }
+    }
+
+}
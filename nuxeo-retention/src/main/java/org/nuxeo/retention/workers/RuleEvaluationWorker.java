@@ -26,17 +26,25 @@ import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.DocumentNotFoundException;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.repository.RepositoryManager;
 import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.core.work.api.Work.Progress;
 import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.service.PendingRuleEvaluations;
 import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.retention.service.RetentionMetrics;
 import org.nuxeo.runtime.api.Framework;
 
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.Timer;
+
 /**
- * Worker scheduled to proceed {@link org.nuxeo.retention.service.RetentionManager#evalExpressionEventBasedRules} on
- * document ids with events set.
+ * Worker scheduled to proceed {@link org.nuxeo.retention.service.RetentionManager#applyEventBasedRules} on document ids
+ * of a repository with events set. The documents are loaded by batch and all of them are evaluated, the number of
+ * evaluated, applied and skipped records being reported in the work status.
  *
  * @since 11.1
  */
@@ -50,13 +58,58 @@ public class RuleEvaluationWorker extends AbstractWork {
 
     public static final String CATEGORY = "retentionRuleWork";
 
+    /**
+     * @since 2023.5
+     */
+    public static final int BATCH_SIZE = 100;
+
     protected final Map<String, Set<String>> docsToCheckAndEvents;
 
+    /**
+     * @since 2023.5
+     */
+    protected transient Map<String, Set<String>> events;
+
+    /**
+     * @since 2023.5
+     */
+    protected long evaluated;
+
+    /**
+     * @since 2023.5
+     */
+    protected long applied;
+
+    /**
+     * @since 2023.5
+     */
+    protected long skipped;
+
+    /**
+     * @deprecated since 2023.5, use {@link #RuleEvaluationWorker(String, Map)} instead
+     */
+    @Deprecated(since = "2023.5")
     public RuleEvaluationWorker(Map<String, Set<String>> docsToCheckAndEvents) {
+        this(Framework.getService(RepositoryManager.class).getDefaultRepositoryName(), docsToCheckAndEvents);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    public RuleEvaluationWorker(String repositoryName, Map<String, Set<String>> docsToCheckAndEvents) {
         this.docsToCheckAndEvents = docsToCheckAndEvents;
-        List<String> docs = new ArrayList<>();
-        docs.addAll(docsToCheckAndEvents.keySet());
-        setDocuments(Framework.getService(RepositoryManager.class).getDefaultRepositoryName(), docs);
+        setDocuments(repositoryName, new ArrayList<>(docsToCheckAndEvents.keySet()));
+    }
+
+    /**
+     * Creates a work evaluating the documents with the events pending for them in {@link PendingRuleEvaluations} when
+     * the work runs.
+     *
+     * @since 2023.5
+     */
+    public RuleEvaluationWorker(String repositoryName, List<String> docIds) {
+        docsToCheckAndEvents = null;
+        setDocuments(repositoryName, docIds);
     }
 
     @Override
@@ -71,31 +124,88 @@ public class RuleEvaluationWorker extends AbstractWork {
 
     @Override
     public void work() {
+        MetricRegistry registry = RetentionMetrics.getRegistry();
+        try (Timer.Context context = registry.timer(RetentionMetrics.EVALUATION_CHUNK_TIMER).time()) {
+            evaluate();
+        }
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void evaluate() {
+        events = docsToCheckAndEvents;
+        if (events == null) {
+            // merged events of all the bundles which impacted the documents while the work was queued
+            events = new PendingRuleEvaluations().take(repositoryName, docIds);
+        }
         openSystemSession();
         RetentionManager retentionManager = Framework.getService(RetentionManager.class);
-        for (String docId : docIds) {
-            DocumentModel doc;
-            try {
-                doc = session.getDocument(new IdRef(docId));
-            } catch (DocumentNotFoundException e) {
-                // this is executed post commit so the document could have been modified to start retention and removed
-                // in the same transaction
-                log.warn("Document impacted by retention no longer exists {}", docId);
-                continue;
-
+        setProgress(new Progress(0, docIds.size()));
+        for (int i = 0; i < docIds.size(); i += BATCH_SIZE) {
+            List<String> batch = docIds.subList(i, Math.min(i + BATCH_SIZE, docIds.size()));
+            DocumentModelList docs = session.getDocuments(batch.stream().map(IdRef::new).toArray(DocumentRef[]::new));
+            // this is executed post commit so the documents could have been modified to start retention and removed
+            // in the same transaction, they are not returned
+            skipped += batch.size() - docs.size();
+            for (DocumentModel doc : docs) {
+                evaluate(doc, retentionManager);
             }
-            Record record = doc.getAdapter(Record.class);
-            if (record == null) {
-                log.warn("Document should be impacted by retention but is no longer a Record: {}", docId);
-                continue;
+            setProgress(new Progress(Math.min(i + BATCH_SIZE, docIds.size()), docIds.size()));
+        }
+        String status = String.format("Evaluated: %d, applied: %d, skipped: %d", evaluated, applied, skipped);
+        log.debug("{} on repository {}", status, repositoryName);
+        setStatus(status);
+    }
+
+    /**
+     * @since 2023.5
+     */
+    protected void evaluate(DocumentModel doc, RetentionManager retentionManager) {
+        Record record = doc.getAdapter(Record.class);
+        if (record == null) {
+            log.warn("Document should be impacted by retention but is no longer a Record: {}", doc::getId);
+            skipped++;
+            return;
+        }
+        Set<String> docEvents = events.get(doc.getId());
+        if (docEvents == null) {
+            // already evaluated by another work
+            skipped++;
+            return;
+        }
+        evaluated++;
+        for (String event : docEvents) {
+            if (retentionManager.applyEventBasedRules(record, event, (String) null, session)) {
+                applied++;
+                return;
             }
-            for (String event : docsToCheckAndEvents.get(docId)) {
-                if (retentionManager.applyEventBasedRules(record, event, null, session)) {
-                    return;
-                }
+            if (record.isRetentionExpired()) {
+                // the end actions have been executed once
+                return;
             }
         }
+    }
+
+    /**
+     * @since 2023.5
+     */
+    public long getEvaluated() {
+        return evaluated;
+    }
+
+    /**
+     * @since 2023.5
+     */
+    public long getApplied() {
+        return applied;
+    }
 
+    /**
+     * @since 2023.5
+     */
+    public long getSkipped() {
+        return skipped;
     }
 
 }
@@ -33,11 +33,13 @@ import org.nuxeo.ecm.automation.test.EmbeddedAutomationServerFeature;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.bulk.BulkService;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
 import org.nuxeo.ecm.core.security.RetentionExpiredFinderListener;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.retention.actions.HoldDocumentsAction;
 import org.nuxeo.retention.adapters.RetentionRule;
 import org.nuxeo.retention.adapters.RetentionRule.StartingPointPolicy;
 import org.nuxeo.retention.service.RetentionManager;
@@ -107,6 +109,9 @@ public abstract class RetentionTestCase {
         new RetentionExpiredFinderListener().handleEvent(null);
         assertTrue("Bulk action didn't finish", bulkService.await(Duration.ofSeconds(60)));
         coreFeature.waitForAsyncCompletion();
+        // the expired records are then proceeded by another bulk action
+        assertTrue("Bulk action didn't finish", bulkService.await(Duration.ofSeconds(60)));
+        coreFeature.waitForAsyncCompletion();
     }
 
     protected RetentionRule createRuleWithActions(RetentionRule.ApplicationPolicy policy,
@@ -193,4 +198,21 @@ public abstract class RetentionTestCase {
                 durationMillis, null, null);
     }
 
+    protected void holdInCase(String caseId, String query) throws InterruptedException {
+        BulkCommand command = new BulkCommand.Builder(HoldDocumentsAction.ACTION_NAME, query,
+                session.getPrincipal().getName()).param(HoldDocumentsAction.PARAM_CASE_ID, caseId).build();
+        bulkService.submit(command);
+        awaitBulkCommands();
+    }
+
+    protected void releaseCase(String caseId) throws InterruptedException {
+        service.releaseLegalHoldCase(caseId, session);
+        awaitBulkCommands();
+    }
+
+    protected void awaitBulkCommands() throws InterruptedException {
+        assertTrue("Bulk action didn't finish", bulkService.await(Duration.ofSeconds(60)));
+        coreFeature.waitForAsyncCompletion();
+    }
+
 }
@@ -38,6 +38,7 @@ import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.retention.RetentionConstants;
 import org.nuxeo.retention.adapters.Record;
 import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -150,4 +151,28 @@ public class TestRetentionAdapters {
         }
     }
 
+    @Test
+    public void testRuleSnapshotRetainUntilDate() {
+        DocumentModel ruleDoc = session.createDocumentModel("/", "RetentionRule", "RetentionRule");
+        RetentionRule rule = ruleDoc.getAdapter(RetentionRule.class);
+        rule.setStartingPointPolicy(RetentionRule.StartingPointPolicy.IMMEDIATE);
+        rule.setApplicationPolicy(RetentionRule.ApplicationPolicy.MANUAL);
+        rule.setDurationYears(1);
+        rule.setDurationMonths(2);
+        rule.setDurationDays(3);
+        rule.setDurationMillis(4);
+        ruleDoc = session.createDocument(ruleDoc);
+        rule = ruleDoc.getAdapter(RetentionRule.class);
+        RetentionRuleSnapshot snapshot = new RetentionRuleSnapshot(rule);
+
+        Calendar start = Calendar.getInstance();
+        assertEquals(rule.getRetainUntilDateFrom(start), snapshot.getRetainUntilDateFrom(start));
+        Calendar expected = (Calendar) start.clone();
+        expected.add(Calendar.YEAR, 1);
+        expected.add(Calendar.MONTH, 2);
+        expected.add(Calendar.DAY_OF_MONTH, 3);
+        expected.add(Calendar.MILLISECOND, 4);
+        assertEquals(expected.getTimeInMillis(), snapshot.getRetainUntilDateFrom(start).getTimeInMillis());
+    }
+
 }
@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.service.RetentionExpirationScheduler;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
+
+/**
+ * @since 2023.5
+ */
+@WithFrameworkProperty(name = RetentionExpirationScheduler.LOOKAHEAD_PROPERTY, value = "2h")
+@WithFrameworkProperty(name = RetentionExpirationScheduler.BATCH_SIZE_PROPERTY, value = "2")
+public class TestRetentionExpirationScheduler extends RetentionTestCase {
+
+    @Test
+    public void testDueRecordsExpiredByBatches() throws InterruptedException {
+        long now = createRecordsExpiringIn(Duration.ofHours(1), 3);
+        RetentionExpirationScheduler scheduler = new RetentionExpirationScheduler("node1");
+        try {
+            // the records are fetched within the lookahead window, none is due yet
+            assertEquals(0, scheduler.tick(now));
+            assertEquals(3, scheduler.getQueueSize());
+            // fetched from the last fetched record, without being queued twice
+            assertEquals(0, scheduler.tick(now + Duration.ofMinutes(1).toMillis()));
+            assertEquals(3, scheduler.getQueueSize());
+
+            // the due records are all expired, by batches
+            long due = now + Duration.ofHours(1).plusMinutes(1).toMillis();
+            assertEquals(3, scheduler.tick(due));
+            assertEquals(0, scheduler.getQueueSize());
+            // the submitted records are not expired twice
+            assertEquals(0, scheduler.tick(due + 1));
+            assertEquals(0, scheduler.getQueueSize());
+        } finally {
+            scheduler.stop();
+        }
+        awaitBulkCommands();
+    }
+
+    @Test
+    @WithFrameworkProperty(name = RetentionExpirationScheduler.FETCH_SIZE_PROPERTY, value = "2")
+    public void testIncrementalFetch() throws InterruptedException {
+        long now = createRecordsExpiringIn(Duration.ofHours(1), 3);
+        RetentionExpirationScheduler scheduler = new RetentionExpirationScheduler("node1");
+        try {
+            // one page per tick while the records are not due
+            assertEquals(0, scheduler.tick(now));
+            assertEquals(2, scheduler.getQueueSize());
+            assertEquals(0, scheduler.tick(now + 1));
+            assertEquals(3, scheduler.getQueueSize());
+            assertEquals(0, scheduler.tick(now + 2));
+            assertEquals(3, scheduler.getQueueSize());
+        } finally {
+            scheduler.stop();
+        }
+        scheduler = new RetentionExpirationScheduler("node1");
+        try {
+            // the last page is fetched once the records are due, all of them being expired
+            long due = now + Duration.ofHours(1).plusMinutes(1).toMillis();
+            assertEquals(0, scheduler.tick(now));
+            assertEquals(3, scheduler.tick(due));
+            assertEquals(0, scheduler.getQueueSize());
+        } finally {
+            scheduler.stop();
+        }
+        awaitBulkCommands();
+    }
+
+    @Test
+    public void testExpirationOutsideLookahead() {
+        long now = createRecordsExpiringIn(Duration.ofHours(3), 1);
+        RetentionExpirationScheduler scheduler = new RetentionExpirationScheduler("node1");
+        try {
+            assertEquals(0, scheduler.tick(now));
+            assertEquals(0, scheduler.getQueueSize());
+            // the window moves forward with the ticks
+            assertEquals(0, scheduler.tick(now + Duration.ofHours(1).plusMinutes(1).toMillis()));
+            assertEquals(1, scheduler.getQueueSize());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testLease() {
+        long now = createRecordsExpiringIn(Duration.ofHours(1), 1);
+        RetentionExpirationScheduler scheduler1 = new RetentionExpirationScheduler("node1");
+        RetentionExpirationScheduler scheduler2 = new RetentionExpirationScheduler("node2");
+        try {
+            assertEquals(0, scheduler1.tick(now));
+            assertEquals(1, scheduler1.getQueueSize());
+            // the lease is held by the first node
+            assertEquals(0, scheduler2.tick(now));
+            assertEquals(0, scheduler2.getQueueSize());
+            assertEquals(0, scheduler1.tick(now + 1));
+            assertEquals(1, scheduler1.getQueueSize());
+
+            // the second node takes over once the lease is released
+            scheduler1.stop();
+            assertEquals(0, scheduler2.tick(now + 2));
+            assertEquals(1, scheduler2.getQueueSize());
+            assertEquals(0, scheduler1.tick(now + 3));
+            assertEquals(0, scheduler1.getQueueSize());
+        } finally {
+            scheduler1.stop();
+            scheduler2.stop();
+        }
+    }
+
+    /**
+     * Returns the time from which the records expire after the given duration.
+     */
+    protected long createRecordsExpiringIn(Duration duration, int count) {
+        long now = System.currentTimeMillis();
+        RetentionRule rule = createManualImmediateRuleMillis(duration.toMillis());
+        for (int i = 0; i < count; i++) {
+            DocumentModel doc = session.createDocument(session.createDocumentModel("/", "doc" + i, "File"));
+            service.attachRule(doc, rule, session);
+        }
+        coreFeature.waitForAsyncCompletion();
+        return now;
+    }
+
+}
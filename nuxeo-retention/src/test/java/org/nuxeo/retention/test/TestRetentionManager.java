@@ -20,16 +20,29 @@ package org.nuxeo.retention.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.nuxeo.retention.RetentionConstants.RECORD_MANAGER_GROUP_NAME;
 
+import java.io.Serializable;
 import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 
@@ -41,11 +54,28 @@ import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventProducer;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.event.impl.EventListenerDescriptor;
 import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.actions.EvalInputEventBasedRuleAction;
 import org.nuxeo.retention.adapters.Record;
 import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.adapters.RetentionRuleSnapshot;
 import org.nuxeo.retention.event.RetentionEventContext;
+import org.nuxeo.retention.listeners.RetentionBusinessEventListener;
+import org.nuxeo.retention.listeners.RetentionDispositionListener;
+import org.nuxeo.retention.service.RetentionExpressionEvaluator;
+import org.nuxeo.retention.service.RetentionForecast;
+import org.nuxeo.retention.service.RetentionManagerImpl;
+import org.nuxeo.retention.service.RetentionMetrics;
+import org.nuxeo.retention.service.RetentionStatistics;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import io.dropwizard.metrics5.MetricName;
+import io.dropwizard.metrics5.MetricRegistry;
 
 /**
  * @since 11.1
@@ -107,6 +137,48 @@ public class TestRetentionManager extends RetentionTestCase {
         assertTrue(file.isTrashed());
     }
 
+    @Test
+    @WithFrameworkProperty(name = RetentionManagerImpl.MASS_DISPOSITION_PROPERTY, value = "true")
+    public void testMassDispositionOfLockedRecords() throws InterruptedException {
+        RetentionRule testRule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL, 100, null,
+                List.of("Document.Lock", "Document.Trash"));
+        DocumentModel otherFile = session.createDocument(session.createDocumentModel("/", "otherFile", "File"));
+        session.setLock(otherFile.getRef());
+        DocumentModel heldFile = session.createDocument(session.createDocumentModel("/", "heldFile", "File"));
+        List<DocumentModel> records = List.of(file, otherFile);
+        assertEquals(2, service.attachRule(records, testRule, session));
+        service.attachRule(List.of(heldFile), testRule, session);
+
+        awaitRetentionExpiration(1000);
+        awaitBulkCommands();
+
+        // the expired records are unlocked, and wait for their disposition
+        for (DocumentModel record : records) {
+            DocumentModel doc = session.getDocument(record.getRef());
+            assertFalse(session.isUnderRetentionOrLegalHold(doc.getRef()));
+            assertFalse(doc.isLocked());
+            assertFalse(doc.isTrashed());
+        }
+        try (Stream<String> docIds = service.getRecordIdsToDispose("Document.Trash", session.getRepositoryName())) {
+            assertEquals(3, docIds.count());
+        }
+        // a record held since its expiration is not disposed of
+        session.setLegalHold(heldFile.getRef(), true, null);
+        coreFeature.waitForAsyncCompletion();
+
+        // trigger manually instead of waiting for scheduler
+        new RetentionDispositionListener().handleEvent(null);
+        awaitBulkCommands();
+
+        for (DocumentModel record : records) {
+            assertTrue(session.getDocument(record.getRef()).isTrashed());
+        }
+        assertFalse(session.getDocument(heldFile.getRef()).isTrashed());
+        try (Stream<String> docIds = service.getRecordIdsToDispose("Document.Trash", session.getRepositoryName())) {
+            assertEquals(0, docIds.count());
+        }
+    }
+
     @Test
     @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
     @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-automation-contrib-test.xml")
@@ -130,6 +202,27 @@ public class TestRetentionManager extends RetentionTestCase {
         assertTrue(file.hasFacet("MyFacet"));
     }
 
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-automation-contrib-test.xml")
+    public void testContextDependentEndActionOnSeveralRecords() throws InterruptedException {
+        RetentionRule testRule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL, 100, null,
+                List.of("MyContextChain"));
+        DocumentModel otherFile = session.createDocument(session.createDocumentModel("/", "otherFile", "File"));
+        List<DocumentModel> records = List.of(file, otherFile);
+        assertEquals(2, service.attachRule(records, testRule, session));
+
+        awaitRetentionExpiration(1000);
+        // the end actions are executed once the expired records are proceeded together
+        awaitBulkCommands();
+
+        // the chain is run on each record with its own document context variable
+        for (DocumentModel record : records) {
+            DocumentModel doc = session.getDocument(record.getRef());
+            assertFalse(session.isUnderRetentionOrLegalHold(doc.getRef()));
+            assertEquals(doc.getName(), doc.getPropertyValue("dc:description"));
+        }
+    }
+
     @Test
     @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
     @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-scripting-contrib-test.xml")
@@ -450,4 +543,459 @@ public class TestRetentionManager extends RetentionTestCase {
         assertFalse(session.isUnderRetentionOrLegalHold(file.getRef()));
     }
 
+    @Test
+    public void testRuleSnapshotInvalidatedOnRuleModification() {
+        RetentionRule testRule = createManualImmediateRuleMillis(Duration.ofDays(1).toMillis());
+        file = service.attachRule(file, testRule, session);
+        Record record = file.getAdapter(Record.class);
+
+        RetentionRuleSnapshot snapshot = service.getRuleSnapshot(record, session);
+        assertNotNull(snapshot);
+        assertEquals(testRule.getDocument().getId(), snapshot.getId());
+        assertEquals(Duration.ofDays(1).toMillis(), snapshot.getDurationMillis());
+        // served from the cache
+        assertSame(snapshot, service.getRuleSnapshot(record, session));
+
+        testRule.setDurationMillis(Duration.ofDays(2).toMillis());
+        testRule = session.saveDocument(testRule.getDocument()).getAdapter(RetentionRule.class);
+        snapshot = service.getRuleSnapshot(record, session);
+        assertEquals(Duration.ofDays(2).toMillis(), snapshot.getDurationMillis());
+
+        testRule.disable();
+        session.saveDocument(testRule.getDocument());
+        assertNull(service.getRuleSnapshot(record, session));
+    }
+
+    @Test
+    public void testEventBasedRulesIndex() {
+        String repositoryName = session.getRepositoryName();
+        RetentionRule movedRule = createManualEventBasedRuleMillisWithExpression(DocumentEventTypes.DOCUMENT_MOVED,
+                null, 1000);
+        RetentionRule modifiedRule = createManualEventBasedRuleMillisWithEventValue(
+                DocumentEventTypes.DOCUMENT_UPDATED, "foo", 1000);
+        createManualImmediateRuleMillis(1000);
+
+        List<RetentionRuleSnapshot> rules = service.getEventBasedRules(DocumentEventTypes.DOCUMENT_MOVED,
+                repositoryName);
+        assertEquals(1, rules.size());
+        assertEquals(movedRule.getDocument().getId(), rules.get(0).getId());
+        rules = service.getEventBasedRules(DocumentEventTypes.DOCUMENT_UPDATED, repositoryName);
+        assertEquals(1, rules.size());
+        assertEquals(modifiedRule.getDocument().getId(), rules.get(0).getId());
+        assertEquals("foo", rules.get(0).getStartingPointValue());
+        assertTrue(service.getEventBasedRules("unknownEvent", repositoryName).isEmpty());
+
+        // the index follows the rule modifications
+        movedRule.disable();
+        session.saveDocument(movedRule.getDocument());
+        assertTrue(service.getEventBasedRules(DocumentEventTypes.DOCUMENT_MOVED, repositoryName).isEmpty());
+        modifiedRule.setStartingPointValue("bar");
+        session.saveDocument(modifiedRule.getDocument());
+        rules = service.getEventBasedRules(DocumentEventTypes.DOCUMENT_UPDATED, repositoryName);
+        assertEquals(1, rules.size());
+        assertEquals("bar", rules.get(0).getStartingPointValue());
+    }
+
+    @Test
+    public void testExpressionEvaluatorCache() {
+        file.setPropertyValue("dc:title", "foo");
+        file = session.saveDocument(file);
+        RetentionExpressionEvaluator evaluator = new RetentionExpressionEvaluator(10);
+        String expression = "document.getTitle().equals(eventInput)";
+        assertTrue(evaluator.evaluate(expression, file, "foo"));
+        assertFalse(evaluator.evaluate(expression, file, "bar"));
+        assertTrue(evaluator.evaluate("currentDate.after(document.getPropertyValue('dc:created'))", file, null));
+        assertFalse(evaluator.evaluate("eventInput != null", file, null));
+        // same variables as the action context evaluation
+        assertTrue(evaluator.evaluate("actionContextDocument.getTitle().equals(currentDocument.getTitle())", file,
+                null));
+        assertTrue(evaluator.evaluate("principal == null && currentUser == null", file, null));
+        // each expression is parsed only once
+        assertEquals(5, evaluator.getCacheSize());
+        assertEquals(1.0 / 6, evaluator.getCacheHitRate(), 0.001);
+    }
+
+    @Test
+    public void testAttachRuleOnBatch() {
+        RetentionRule testRule = createManualImmediateRuleMillis(Duration.ofDays(1).toMillis());
+        List<DocumentModel> docs = new ArrayList<>();
+        docs.add(file);
+        for (int i = 0; i < 3; i++) {
+            DocumentModel doc = session.createDocumentModel("/", "File" + i, "File");
+            docs.add(session.createDocument(doc));
+        }
+        // the rule only accepts files
+        DocumentModel folder = session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+        docs.add(folder);
+
+        assertEquals(4, service.attachRule(docs, testRule, session));
+        List<DocumentModel> records = session.getDocuments(
+                docs.subList(0, 4).stream().map(DocumentModel::getRef).toArray(DocumentRef[]::new));
+        Calendar retainUntil = records.get(0).getRetainUntil();
+        assertNotNull(retainUntil);
+        for (DocumentModel record : records) {
+            assertTrue(record.isRecord());
+            assertTrue(record.hasFacet(RetentionConstants.RECORD_FACET));
+            assertTrue(session.isUnderRetentionOrLegalHold(record.getRef()));
+            // the retention period starts at the same time for the whole batch
+            assertEquals(retainUntil.getTimeInMillis(), record.getRetainUntil().getTimeInMillis());
+            assertEquals(testRule.getDocument().getId(),
+                    record.getAdapter(Record.class).getRuleIds().get(0));
+        }
+        folder = session.getDocument(folder.getRef());
+        assertFalse(folder.isRecord());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+    public void testRecordStartingPoint() throws InterruptedException {
+        RetentionRule testRule = createManualEventBasedRuleMillisWithEventValue("myRetentionEvent", "foo",
+                Duration.ofDays(1).toMillis());
+        file = service.attachRule(file, testRule, session);
+        Record record = file.getAdapter(Record.class);
+        assertEquals("myRetentionEvent", record.getStartingPointEvent());
+        assertEquals("foo", record.getStartingPointValue());
+
+        // records follow the rule modifications
+        testRule.setStartingPointValue("bar");
+        session.saveDocument(testRule.getDocument());
+        awaitBulkCommands();
+        record = session.getDocument(file.getRef()).getAdapter(Record.class);
+        assertEquals("bar", record.getStartingPointValue());
+
+        // records attached before the starting point was denormalized are backfilled
+        record.setStartingPoint(null, null);
+        Record.save(List.of(record), session);
+        service.updateRecordStartingPoints(null, session.getRepositoryName());
+        awaitBulkCommands();
+        record = session.getDocument(file.getRef()).getAdapter(Record.class);
+        assertEquals("myRetentionEvent", record.getStartingPointEvent());
+        assertEquals("bar", record.getStartingPointValue());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+    public void testRecordWithoutStartingPoint() throws InterruptedException {
+        RetentionRule testRule = createManualEventBasedRuleMillisWithEventValue("myRetentionEvent", "baz",
+                Duration.ofDays(1).toMillis());
+        file = service.attachRule(file, testRule, session);
+        assertFalse(service.hasRecordsWithoutStartingPoint(session.getRepositoryName()));
+
+        // a record attached before the starting point was denormalized
+        Record record = file.getAdapter(Record.class);
+        record.setStartingPoint(null, null);
+        Record.save(List.of(record), session);
+        coreFeature.waitForAsyncCompletion();
+        service.invalidate();
+        assertTrue(service.hasRecordsWithoutStartingPoint(session.getRepositoryName()));
+
+        // it is still selected by its rule
+        fireAndWait("myRetentionEvent", "baz");
+        awaitBulkCommands();
+        record = session.getDocument(file.getRef()).getAdapter(Record.class);
+        assertFalse(record.isRetentionIndeterminate());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+    public void testBusinessEventPreEvaluation() {
+        String eventId = "myRetentionEvent";
+        long noRule = getDroppedEvents(RetentionBusinessEventListener.NO_RULE_STAGE);
+        long value = getDroppedEvents(RetentionBusinessEventListener.STARTING_POINT_VALUE_STAGE);
+        long expression = getDroppedEvents(RetentionBusinessEventListener.STARTING_POINT_EXPRESSION_STAGE);
+
+        fireAndWait(eventId, "foo");
+        assertEquals(noRule + 1, getDroppedEvents(RetentionBusinessEventListener.NO_RULE_STAGE));
+
+        createManualEventBasedRuleMillisWithEventValue(eventId, "foo", 1000);
+        fireAndWait(eventId, "bar");
+        assertEquals(value + 1, getDroppedEvents(RetentionBusinessEventListener.STARTING_POINT_VALUE_STAGE));
+
+        createManualEventBasedRuleMillisWithExpression(eventId, "eventInput.equals('foo')", 1000);
+        fireAndWait(eventId, "bar");
+        assertEquals(expression + 1,
+                getDroppedEvents(RetentionBusinessEventListener.STARTING_POINT_EXPRESSION_STAGE));
+
+        // an expression depending on the document cannot be evaluated without records
+        createManualEventBasedRuleMillisWithExpression(eventId, "document.getTitle().equals(eventInput)", 1000);
+        fireAndWait(eventId, "bar");
+        assertEquals(noRule + 1, getDroppedEvents(RetentionBusinessEventListener.NO_RULE_STAGE));
+        assertEquals(value + 1, getDroppedEvents(RetentionBusinessEventListener.STARTING_POINT_VALUE_STAGE));
+        assertEquals(expression + 1,
+                getDroppedEvents(RetentionBusinessEventListener.STARTING_POINT_EXPRESSION_STAGE));
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+    @WithFrameworkProperty(name = RetentionBusinessEventListener.COALESCING_WINDOW_PROPERTY, value = "1m")
+    public void testBusinessEventCoalescing() {
+        String eventId = "myRetentionEvent";
+        createManualEventBasedRuleMillisWithEventValue(eventId, "foo", 1000);
+        createManualEventBasedRuleMillisWithEventValue(eventId, "bar", 1000);
+        long coalesced = getDroppedEvents(RetentionBusinessEventListener.COALESCED_STAGE);
+
+        fireAndWait(eventId, "foo");
+        assertEquals(coalesced, getDroppedEvents(RetentionBusinessEventListener.COALESCED_STAGE));
+        // identical event within the window
+        fireAndWait(eventId, "foo");
+        assertEquals(coalesced + 1, getDroppedEvents(RetentionBusinessEventListener.COALESCED_STAGE));
+        // different input
+        fireAndWait(eventId, "bar");
+        assertEquals(coalesced + 1, getDroppedEvents(RetentionBusinessEventListener.COALESCED_STAGE));
+        // identical multi-input event within the window, whatever the order of the inputs
+        service.fireRetentionEvent(eventId, List.of("foo", "bar"), false, session);
+        coreFeature.waitForAsyncCompletion();
+        assertEquals(coalesced + 1, getDroppedEvents(RetentionBusinessEventListener.COALESCED_STAGE));
+        service.fireRetentionEvent(eventId, List.of("bar", "foo"), false, session);
+        coreFeature.waitForAsyncCompletion();
+        assertEquals(coalesced + 2, getDroppedEvents(RetentionBusinessEventListener.COALESCED_STAGE));
+    }
+
+    @Test
+    public void testDocumentEventListenerRegisteredEvents() {
+        EventListenerDescriptor descriptor = Framework.getService(EventService.class)
+                                                      .getEventListener(
+                                                              RetentionManagerImpl.DOCUMENT_EVENT_LISTENER_NAME);
+        Set<String> registeredEvents = descriptor.getEvents();
+        assertEquals(service.getAcceptedEventSet(), registeredEvents);
+        assertThrows(UnsupportedOperationException.class, () -> registeredEvents.add("foo"));
+        assertTrue(descriptor.acceptEvent(DocumentEventTypes.DOCUMENT_MOVED));
+        assertFalse(descriptor.acceptEvent(DocumentEventTypes.DOCUMENT_CREATED));
+
+        // a new set is registered once the accepted events are recomputed
+        service.invalidate();
+        service.getAcceptedEventSet();
+        assertNotSame(registeredEvents, descriptor.getEvents());
+        assertEquals(registeredEvents, descriptor.getEvents());
+    }
+
+    @Test
+    public void testAcceptedEventsRecomputedAfterInvalidation() {
+        Set<String> acceptedEvents = service.getAcceptedEventSet();
+        assertTrue(acceptedEvents.contains(DocumentEventTypes.DOCUMENT_MOVED));
+        assertSame(acceptedEvents, service.getAcceptedEventSet());
+        assertThrows(UnsupportedOperationException.class, () -> acceptedEvents.add("foo"));
+        // the list view of the previous API
+        List<String> acceptedEventList = service.getAcceptedEvents();
+        assertEquals(acceptedEvents, Set.copyOf(acceptedEventList));
+        assertThrows(UnsupportedOperationException.class, () -> acceptedEventList.add("foo"));
+
+        service.invalidate();
+        Set<String> recomputedEvents = service.getAcceptedEventSet();
+        assertEquals(acceptedEvents, recomputedEvents);
+        assertSame(recomputedEvents, service.getAcceptedEventSet());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+    public void testRetentionMetrics() {
+        MetricRegistry registry = RetentionMetrics.getRegistry();
+        long attached = registry.timer(RetentionMetrics.ATTACH_RULE_TIMER).getCount();
+        MetricName evalRecords = RetentionMetrics.COMPUTATION_RECORDS_COUNTER.tagged("computation",
+                EvalInputEventBasedRuleAction.ACTION_NAME);
+        long applied = registry.counter(evalRecords.tagged("status", RetentionMetrics.APPLIED)).getCount();
+        long skipped = registry.counter(evalRecords.tagged("status", RetentionMetrics.SKIPPED)).getCount();
+
+        String eventId = "myRetentionEvent";
+        RetentionRule rule = createManualEventBasedRuleMillisWithExpression(eventId, "document.getTitle() == 'foo'",
+                1000);
+        DocumentModel otherFile = session.createDocument(session.createDocumentModel("/", "otherFile", "File"));
+        file.setPropertyValue("dc:title", "foo");
+        file = session.saveDocument(file);
+        service.attachRule(List.of(file, otherFile), rule, session);
+        assertEquals(attached + 1, registry.timer(RetentionMetrics.ATTACH_RULE_TIMER).getCount());
+
+        fireAndWait(eventId, null);
+        assertTrue(bulkService.await(Duration.ofSeconds(60)));
+        assertEquals(applied + 1, registry.counter(evalRecords.tagged("status", RetentionMetrics.APPLIED)).getCount());
+        assertEquals(skipped + 1, registry.counter(evalRecords.tagged("status", RetentionMetrics.SKIPPED)).getCount());
+    }
+
+    @Test
+    public void testRetentionStatistics() throws InterruptedException {
+        String repositoryName = session.getRepositoryName();
+        RetentionStatistics statistics = service.getStatistics();
+        reconcileStatistics();
+        Map<String, Serializable> stats = statistics.get(repositoryName);
+        assertEquals(Map.of(), stats.get(RetentionStatistics.RULES));
+        assertEquals(0L, stats.get(RetentionStatistics.LEGAL_HOLDS));
+
+        RetentionRule rule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL,
+                Duration.ofDays(400).toMillis(), null, null);
+        file = service.attachRule(file, rule, session);
+        DocumentModel otherFile = session.createDocument(session.createDocumentModel("/", "otherFile", "File"));
+        coreFeature.waitForAsyncCompletion();
+        holdInCase("case1", "SELECT * FROM Document WHERE ecm:uuid = '" + otherFile.getId() + "'");
+
+        stats = statistics.get(repositoryName);
+        assertEquals(Map.of(rule.getDocument().getId(), 1L), stats.get(RetentionStatistics.RULES));
+        assertEquals(1L, stats.get(RetentionStatistics.LEGAL_HOLDS));
+        assertEquals(0L, stats.get(RetentionStatistics.INDETERMINATE));
+        String month = DateTimeFormatter.ofPattern("yyyy-MM")
+                                        .withZone(ZoneId.systemDefault())
+                                        .format(file.getRetainUntil().toInstant());
+        assertEquals(Map.of(month, 1L), stats.get(RetentionStatistics.HORIZON));
+
+        // drift is corrected by the reconciliation
+        statistics.update(repositoryName, RetentionStatistics.LEGAL_HOLDS, 5);
+        statistics.update(repositoryName, RetentionStatistics.INDETERMINATE, 2);
+        coreFeature.waitForAsyncCompletion();
+        assertEquals(6L, statistics.get(repositoryName).get(RetentionStatistics.LEGAL_HOLDS));
+        reconcileStatistics();
+        Map<String, Serializable> reconciled = statistics.get(repositoryName);
+        stats.remove(RetentionStatistics.RECONCILED);
+        reconciled.remove(RetentionStatistics.RECONCILED);
+        assertEquals(stats, reconciled);
+    }
+
+    @Test
+    public void testRetentionStatisticsUpdatedOnCommit() {
+        String repositoryName = session.getRepositoryName();
+        RetentionStatistics statistics = service.getStatistics();
+        RetentionRule rule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL,
+                Duration.ofDays(400).toMillis(), null, null);
+        String ruleId = rule.getDocument().getId();
+        file = service.attachRule(file, rule, session);
+        // not applied until the transaction is committed
+        assertNull(getRuleCount(statistics, ruleId));
+        coreFeature.waitForAsyncCompletion();
+        assertEquals(Long.valueOf(1), getRuleCount(statistics, ruleId));
+
+        // not applied when the transaction is rolled back
+        statistics.update(repositoryName, RetentionStatistics.getRuleCounter(ruleId), 5);
+        TransactionHelper.setTransactionRollbackOnly();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertEquals(Long.valueOf(1), getRuleCount(statistics, ruleId));
+
+        // the single expired record leaves the counters
+        Record record = session.getDocument(file.getRef()).getAdapter(Record.class);
+        record.saveRetainUntil(file.getRetainUntil());
+        service.proceedRetentionExpired(record, session);
+        coreFeature.waitForAsyncCompletion();
+        assertNull(getRuleCount(statistics, ruleId));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Long getRuleCount(RetentionStatistics statistics, String ruleId) {
+        return ((Map<String, Long>) statistics.get(session.getRepositoryName()).get(RetentionStatistics.RULES)).get(
+                ruleId);
+    }
+
+    @Test
+    public void testExpirationForecast() {
+        String repositoryName = session.getRepositoryName();
+        RetentionForecast forecast = service.getForecast();
+        RetentionRule rule = createManualImmediateFlexibleRuleMillis(Duration.ofDays(10).toMillis());
+        String ruleId = rule.getDocument().getId();
+        Map<String, Map<String, Long>> before = forecast.get(repositoryName, LocalDate.now(), 30, ruleId);
+
+        file = service.attachRule(file, rule, session);
+        coreFeature.waitForAsyncCompletion();
+        String day = LocalDate.ofInstant(file.getRetainUntil().toInstant(), ZoneId.systemDefault()).toString();
+        Map<String, Map<String, Long>> after = forecast.get(repositoryName, LocalDate.now(), 30, ruleId);
+        assertEquals(Map.of(day, Map.of(ruleId, 1L)), after);
+        assertTrue(before.isEmpty());
+        // out of the forecast window
+        assertTrue(forecast.get(repositoryName, LocalDate.now(), 5, ruleId).isEmpty());
+
+        // extending the retention moves the record to another day
+        Calendar extended = file.getRetainUntil();
+        extended.add(Calendar.DAY_OF_MONTH, 5);
+        session.setRetainUntil(file.getRef(), extended, null);
+        coreFeature.waitForAsyncCompletion();
+        String extendedDay = LocalDate.ofInstant(extended.toInstant(), ZoneId.systemDefault()).toString();
+        assertEquals(Map.of(extendedDay, Map.of(ruleId, 1L)),
+                forecast.get(repositoryName, LocalDate.now(), 30, ruleId));
+
+        file = service.unattachRule(session.getDocument(file.getRef()), session);
+        coreFeature.waitForAsyncCompletion();
+        assertTrue(forecast.get(repositoryName, LocalDate.now(), 30, ruleId).isEmpty());
+
+        // the horizon by month of the statistics is derived from the same counters
+        DocumentModel otherFile = session.createDocument(session.createDocumentModel("/", "otherFile", "File"));
+        otherFile = service.attachRule(otherFile, rule, session);
+        coreFeature.waitForAsyncCompletion();
+        String month = day.substring(0, "yyyy-MM".length());
+        assertEquals(1L, ((Map<?, ?>) service.getStatistics().get(repositoryName).get(RetentionStatistics.HORIZON)).get(
+                month));
+
+        // a rolled back retention change is not forecast
+        Calendar rolledBack = otherFile.getRetainUntil();
+        rolledBack.add(Calendar.DAY_OF_MONTH, 5);
+        session.setRetainUntil(otherFile.getRef(), rolledBack, null);
+        TransactionHelper.setTransactionRollbackOnly();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertEquals(Map.of(day, Map.of(ruleId, 1L)), forecast.get(repositoryName, LocalDate.now(), 30, ruleId));
+
+        // a removed flexible record leaves the forecast
+        session.removeDocument(otherFile.getRef());
+        coreFeature.waitForAsyncCompletion();
+        assertTrue(forecast.get(repositoryName, LocalDate.now(), 30, ruleId).isEmpty());
+    }
+
+    @Test
+    public void testAutoRules() throws InterruptedException {
+        String repositoryName = session.getRepositoryName();
+        RetentionRule autoRule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.AUTO,
+                Duration.ofDays(1).toMillis(), null, null);
+        createManualImmediateRuleMillis(Duration.ofDays(1).toMillis());
+
+        // only the auto rule accepting the document type is indexed
+        List<RetentionRuleSnapshot> rules = service.getAutoRules("File", repositoryName);
+        assertEquals(1, rules.size());
+        assertEquals(autoRule.getDocument().getId(), rules.get(0).getId());
+        assertTrue(service.getAutoRules("Note", repositoryName).isEmpty());
+
+        List<DocumentModel> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(session.createDocument(session.createDocumentModel("/", "auto" + i, "File")));
+        }
+        DocumentModel note = session.createDocument(session.createDocumentModel("/", "note", "Note"));
+        coreFeature.waitForAsyncCompletion();
+        awaitBulkCommands();
+
+        for (DocumentModel doc : files) {
+            doc = session.getDocument(doc.getRef());
+            assertTrue(doc.isRecord());
+            assertEquals(List.of(autoRule.getDocument().getId()), doc.getAdapter(Record.class).getRuleIds());
+        }
+        assertFalse(session.getDocument(note.getRef()).isRecord());
+
+        // the index follows the rule modifications
+        autoRule.disable();
+        session.saveDocument(autoRule.getDocument());
+        assertTrue(service.getAutoRules("File", repositoryName).isEmpty());
+        DocumentModel other = session.createDocument(session.createDocumentModel("/", "other", "File"));
+        coreFeature.waitForAsyncCompletion();
+        awaitBulkCommands();
+        assertFalse(session.getDocument(other.getRef()).isRecord());
+    }
+
+    protected void reconcileStatistics() throws InterruptedException {
+        String repositoryName = session.getRepositoryName();
+        RetentionStatistics statistics = service.getStatistics();
+        Serializable reconciled = statistics.get(repositoryName).get(RetentionStatistics.RECONCILED);
+        service.reconcileStatistics(repositoryName);
+        awaitBulkCommands();
+        // the statistics are replaced once the completed command is followed
+        for (int i = 0; i < 100 && Objects.equals(reconciled,
+                statistics.get(repositoryName).get(RetentionStatistics.RECONCILED)); i++) {
+            Thread.sleep(100);
+        }
+        assertNotEquals(reconciled, statistics.get(repositoryName).get(RetentionStatistics.RECONCILED));
+    }
+
+    protected void fireAndWait(String eventId, String eventInput) {
+        service.fireRetentionEvent(eventId, eventInput, false, session);
+        coreFeature.waitForAsyncCompletion();
+    }
+
+    protected long getDroppedEvents(String stage) {
+        return RetentionMetrics.getRegistry()
+                               .counter(RetentionMetrics.DROPPED_EVENTS_COUNTER.tagged("stage", stage))
+                               .getCount();
+    }
+
 }
@@ -18,12 +18,24 @@
  */
 package org.nuxeo.retention.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.SYSTEM_USERNAME;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 
@@ -32,13 +44,26 @@ import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationChain;
 import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.automation.core.operations.document.LockDocument;
+import org.nuxeo.ecm.automation.core.util.StringList;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.PropertyException;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.actions.HoldDocumentsAction;
+import org.nuxeo.retention.actions.ProceedRetentionExpiredAction;
+import org.nuxeo.retention.actions.UnholdDocumentsAction;
+import org.nuxeo.retention.adapters.Record;
 import org.nuxeo.retention.adapters.RetentionRule;
 import org.nuxeo.retention.operations.AttachRetentionRule;
+import org.nuxeo.retention.operations.FireRetentionEvent;
+import org.nuxeo.retention.operations.HoldDocument;
 import org.nuxeo.retention.operations.RetainDocument;
 import org.nuxeo.retention.operations.UnattachRetentionRule;
+import org.nuxeo.retention.operations.UnholdDocument;
+import org.nuxeo.retention.service.RetentionManager;
+import org.nuxeo.runtime.test.runner.Deploy;
 
 /**
  * @since 2023.1
@@ -48,6 +73,9 @@ public class TestRetentionOperation extends RetentionTestCase {
     @Inject
     AutomationService service;
 
+    @Inject
+    protected RetentionManager retentionManager;
+
     @Test
     public void testAttachEnforcedRuleAndUnattach() throws OperationException {
         DocumentModel file = session.createDocumentModel("/", "File", "File");
@@ -147,4 +175,211 @@ public class TestRetentionOperation extends RetentionTestCase {
         }
     }
 
+    @Test
+    public void testHoldAndUnholdDocumentsAction() throws InterruptedException {
+        DocumentModel folder = session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+        List<DocumentModel> docs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            docs.add(session.createDocument(session.createDocumentModel(folder.getPathAsString(), "doc" + i, "File")));
+        }
+        // one document is already held, the others never were
+        session.makeRecord(docs.get(0).getRef());
+        session.setLegalHold(docs.get(0).getRef(), true, "already held");
+        String query = "SELECT * FROM Document WHERE ecm:parentId = '" + folder.getId() + "'";
+
+        runBulkAction(new BulkCommand.Builder(HoldDocumentsAction.ACTION_NAME, query, SYSTEM_USERNAME).param(
+                HoldDocumentsAction.PARAM_DESC, "held").build());
+        for (DocumentModel doc : docs) {
+            assertTrue(session.hasLegalHold(doc.getRef()));
+        }
+
+        runBulkAction(new BulkCommand.Builder(UnholdDocumentsAction.ACTION_NAME, query, SYSTEM_USERNAME).build());
+        for (DocumentModel doc : docs) {
+            assertFalse(session.hasLegalHold(doc.getRef()));
+        }
+    }
+
+    @Test
+    public void testReleaseLegalHoldCases() throws InterruptedException {
+        String repositoryName = session.getRepositoryName();
+        DocumentModel other = session.createDocument(session.createDocumentModel("/", "other", "File"));
+        coreFeature.waitForAsyncCompletion();
+        holdInCase("case1", "SELECT * FROM File WHERE ecm:isProxy = 0");
+        holdInCase("case2", String.format("SELECT * FROM File WHERE ecm:uuid = '%s'", file.getId()));
+        assertEquals(Set.of("case1", "case2"), retentionManager.getLegalHoldCases(file.getId(), repositoryName));
+        assertEquals(Set.of("case1"), retentionManager.getLegalHoldCases(other.getId(), repositoryName));
+        try (Stream<String> ids = retentionManager.getLegalHoldCaseDocumentIds("case1", repositoryName)) {
+            assertEquals(Set.of(file.getId(), other.getId()), ids.collect(Collectors.toSet()));
+        }
+
+        // file is still under case2
+        releaseCase("case1");
+        assertTrue(session.hasLegalHold(file.getRef()));
+        assertFalse(session.hasLegalHold(other.getRef()));
+        assertEquals(Set.of("case2"), retentionManager.getLegalHoldCases(file.getId(), repositoryName));
+
+        releaseCase("case2");
+        assertFalse(session.hasLegalHold(file.getRef()));
+        assertTrue(retentionManager.getLegalHoldCases(file.getId(), repositoryName).isEmpty());
+    }
+
+    @Test
+    public void testReleaseLegalHoldCaseKeepsHoldWithoutCase() throws OperationException, InterruptedException {
+        String repositoryName = session.getRepositoryName();
+        DocumentModel other = session.createDocument(session.createDocumentModel("/", "other", "File"));
+        DocumentModel third = session.createDocument(session.createDocumentModel("/", "third", "File"));
+        // file is held before joining a case
+        hold(file, null);
+        coreFeature.waitForAsyncCompletion();
+        holdInCase("case1", "SELECT * FROM File WHERE ecm:isProxy = 0");
+        // other is held outside of any case after joining one
+        hold(other, null);
+        assertEquals(Set.of("case1"), retentionManager.getLegalHoldCases(other.getId(), repositoryName));
+
+        releaseCase("case1");
+        assertTrue(session.hasLegalHold(file.getRef()));
+        assertTrue(session.hasLegalHold(other.getRef()));
+        assertFalse(session.hasLegalHold(third.getRef()));
+
+        // removing the legal hold without a case releases the document
+        unhold(file, null);
+        assertFalse(session.hasLegalHold(file.getRef()));
+        assertTrue(retentionManager.getLegalHoldCases(file.getId(), repositoryName).isEmpty());
+    }
+
+    @Test
+    public void testHoldAndUnholdDocumentInCases() throws OperationException {
+        String repositoryName = session.getRepositoryName();
+        hold(file, "case1");
+        hold(file, "case2");
+        assertEquals(Set.of("case1", "case2"), retentionManager.getLegalHoldCases(file.getId(), repositoryName));
+
+        unhold(file, "case1");
+        assertTrue(session.hasLegalHold(file.getRef()));
+        unhold(file, "case2");
+        assertFalse(session.hasLegalHold(file.getRef()));
+        assertTrue(retentionManager.getLegalHoldCases(file.getId(), repositoryName).isEmpty());
+    }
+
+    @Test
+    public void testLegalHoldCaseCleanedOnHoldRemoval() throws OperationException {
+        String repositoryName = session.getRepositoryName();
+        hold(file, "case1");
+        // legal hold removed without going through the retention operations
+        session.setLegalHold(file.getRef(), false, null);
+        assertTrue(retentionManager.getLegalHoldCases(file.getId(), repositoryName).isEmpty());
+        try (Stream<String> ids = retentionManager.getLegalHoldCaseDocumentIds("case1", repositoryName)) {
+            assertEquals(0, ids.count());
+        }
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+    public void testFireEventWithSeveralInputs() throws OperationException, InterruptedException {
+        String eventId = "myRetentionEvent";
+        RetentionRule fooRule = createManualEventBasedRuleMillisWithEventValue(eventId, "foo", 100);
+        RetentionRule barRule = createManualEventBasedRuleMillisWithEventValue(eventId, "bar", 100);
+        RetentionRule bazRule = createManualEventBasedRuleMillisWithEventValue(eventId, "baz", 100);
+        DocumentModel barDoc = session.createDocument(session.createDocumentModel("/", "bar", "File"));
+        DocumentModel bazDoc = session.createDocument(session.createDocumentModel("/", "baz", "File"));
+        DocumentModel fooDoc = retentionManager.attachRule(file, fooRule, session);
+        barDoc = retentionManager.attachRule(barDoc, barRule, session);
+        bazDoc = retentionManager.attachRule(bazDoc, bazRule, session);
+
+        try (OperationContext ctx = new OperationContext(session)) {
+            OperationChain chain = new OperationChain("testChain");
+            chain.add(FireRetentionEvent.ID)
+                 .set("name", eventId)
+                 .set("audit", false)
+                 .set("inputs", new StringList(List.of("foo", "bar", "qux")));
+            service.run(ctx, chain);
+        }
+        awaitBulkCommands();
+
+        assertFalse(session.getDocument(fooDoc.getRef()).getAdapter(Record.class).isRetentionIndeterminate());
+        assertFalse(session.getDocument(barDoc.getRef()).getAdapter(Record.class).isRetentionIndeterminate());
+        assertTrue(session.getDocument(bazDoc.getRef()).getAdapter(Record.class).isRetentionIndeterminate());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-automation-contrib-test.xml")
+    public void testProceedRetentionExpiredAction() throws InterruptedException {
+        RetentionRule customRule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL, 100, null,
+                List.of("MyCustomChain"));
+        RetentionRule lockRule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL, 100, null,
+                List.of(LockDocument.ID));
+        RetentionRule runningRule = createImmediateRuleMillis(RetentionRule.ApplicationPolicy.MANUAL,
+                Duration.ofDays(1).toMillis(), null, List.of(LockDocument.ID));
+        DocumentModel custom1 = retentionManager.attachRule(file, customRule, session);
+        DocumentModel custom2 = retentionManager.attachRule(
+                session.createDocument(session.createDocumentModel("/", "custom2", "File")), customRule, session);
+        DocumentModel locked = retentionManager.attachRule(
+                session.createDocument(session.createDocumentModel("/", "locked", "File")), lockRule, session);
+        DocumentModel running = retentionManager.attachRule(
+                session.createDocument(session.createDocumentModel("/", "running", "File")), runningRule, session);
+        coreFeature.waitForAsyncCompletion();
+        Thread.sleep(200);
+
+        Instant retainUntil = Instant.now().minusSeconds(1).truncatedTo(ChronoUnit.MILLIS);
+        HashMap<String, String> retainUntils = new HashMap<>();
+        retainUntils.put(custom1.getId(), retainUntil.toString());
+        String ids = Stream.of(custom1, custom2, locked, running)
+                           .map(DocumentModel::getId)
+                           .map(NXQL::escapeString)
+                           .collect(Collectors.joining(", "));
+        runBulkAction(new BulkCommand.Builder(ProceedRetentionExpiredAction.ACTION_NAME,
+                String.format(RetentionConstants.BATCH_DOCUMENT_IDS_QUERY, ids), SYSTEM_USERNAME).param(
+                        ProceedRetentionExpiredAction.PARAM_RETAIN_UNTIL, retainUntils).build());
+
+        // the end actions of each rule are executed on its records only
+        custom1 = session.getDocument(custom1.getRef());
+        custom2 = session.getDocument(custom2.getRef());
+        locked = session.getDocument(locked.getRef());
+        assertEquals("My New Title", custom1.getTitle());
+        assertEquals("My New Title", custom2.getTitle());
+        assertFalse(custom1.isLocked());
+        assertTrue(locked.isLocked());
+        assertNotEquals("My New Title", locked.getTitle());
+        // the record still under retention is skipped
+        running = session.getDocument(running.getRef());
+        assertFalse(running.isLocked());
+
+        // the expired retain until date is saved from the command parameter
+        assertEquals(retainUntil.toEpochMilli(),
+                custom1.getAdapter(Record.class).getSavedRetainUntil().getTimeInMillis());
+        assertNull(custom2.getAdapter(Record.class).getSavedRetainUntil());
+    }
+
+    protected void hold(DocumentModel doc, String caseId) throws OperationException {
+        try (OperationContext ctx = new OperationContext(session)) {
+            ctx.setInput(doc);
+            OperationChain chain = new OperationChain("testChain");
+            if (caseId == null) {
+                chain.add(HoldDocument.ID);
+            } else {
+                chain.add(HoldDocument.ID).set("caseId", caseId);
+            }
+            service.run(ctx, chain);
+        }
+    }
+
+    protected void unhold(DocumentModel doc, String caseId) throws OperationException {
+        try (OperationContext ctx = new OperationContext(session)) {
+            ctx.setInput(doc);
+            OperationChain chain = new OperationChain("testChain");
+            if (caseId == null) {
+                chain.add(UnholdDocument.ID);
+            } else {
+                chain.add(UnholdDocument.ID).set("caseId", caseId);
+            }
+            service.run(ctx, chain);
+        }
+    }
+
+    protected void runBulkAction(BulkCommand command) throws InterruptedException {
+        coreFeature.waitForAsyncCompletion();
+        bulkService.submit(command);
+        awaitBulkCommands();
+    }
+
 }
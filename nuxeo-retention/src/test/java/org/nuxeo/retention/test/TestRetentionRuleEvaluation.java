@@ -0,0 +1,201 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nuxeo.common.utils.Path;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.event.impl.EventBundleImpl;
+import org.nuxeo.ecm.core.event.test.CapturingEventListener;
+import org.nuxeo.retention.adapters.Record;
+import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.retention.listeners.RetentionDocumentEventListener;
+import org.nuxeo.retention.service.PendingRuleEvaluations;
+import org.nuxeo.retention.workers.RuleEvaluationWorker;
+import org.nuxeo.runtime.test.runner.Deploy;
+
+/**
+ * Tests the evaluation of the event-based rules on document events, from the listener to the worker.
+ *
+ * @since 2023.5
+ */
+@Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+public class TestRetentionRuleEvaluation extends RetentionTestCase {
+
+    protected static final String EVENT_ID = "myRetentionEvent";
+
+    @Test
+    public void testDocumentEventsGroupedByRepository() {
+        DocumentModel other = new DocumentModelImpl(null, "File", "otherId", new Path("/other"), new IdRef("otherId"),
+                null, new String[0], new HashSet<>(), null, "other", false);
+        EventBundleImpl bundle = new EventBundleImpl();
+        bundle.push(newEvent(file, DocumentEventTypes.DOCUMENT_UPDATED));
+        bundle.push(newEvent(other, DocumentEventTypes.DOCUMENT_UPDATED));
+        bundle.push(newEvent(file, DocumentEventTypes.DOCUMENT_MOVED));
+
+        Map<String, Map<String, Set<String>>> docsByRepository = new TestListener().getDocsByRepository(bundle);
+        assertEquals(Set.of(session.getRepositoryName(), "other"), docsByRepository.keySet());
+        assertEquals(Set.of(DocumentEventTypes.DOCUMENT_UPDATED, DocumentEventTypes.DOCUMENT_MOVED),
+                docsByRepository.get(session.getRepositoryName()).get(file.getId()));
+        assertEquals(Map.of("otherId", Set.of(DocumentEventTypes.DOCUMENT_UPDATED)), docsByRepository.get("other"));
+    }
+
+    @Test
+    public void testRemovedDocumentSkipped() {
+        RetentionRule rule = createManualEventBasedRuleMillisWithExpression(EVENT_ID, null, 1000);
+        file = service.attachRule(file, rule, session);
+        DocumentModel removed = session.createDocument(session.createDocumentModel("/", "removed", "File"));
+        session.removeDocument(removed.getRef());
+
+        Map<String, Set<String>> docsToCheckAndEvents = new HashMap<>();
+        docsToCheckAndEvents.put(file.getId(), Set.of(EVENT_ID));
+        docsToCheckAndEvents.put(removed.getId(), Set.of(EVENT_ID));
+        RuleEvaluationWorker worker = new RuleEvaluationWorker(session.getRepositoryName(), docsToCheckAndEvents);
+        worker.work();
+
+        assertEquals(1, worker.getEvaluated());
+        assertEquals(1, worker.getApplied());
+        assertEquals(1, worker.getSkipped());
+        assertFalse(session.getDocument(file.getRef()).getAdapter(Record.class).isRetentionIndeterminate());
+    }
+
+    @Test
+    public void testNonRecordSkipped() {
+        Map<String, Set<String>> docsToCheckAndEvents = Map.of(file.getId(), Set.of(EVENT_ID));
+        RuleEvaluationWorker worker = new RuleEvaluationWorker(session.getRepositoryName(), docsToCheckAndEvents);
+        worker.work();
+
+        assertEquals(0, worker.getEvaluated());
+        assertEquals(1, worker.getSkipped());
+        assertNull(session.getDocument(file.getRef()).getAdapter(Record.class));
+    }
+
+    @Test
+    public void testRunningRetentionNotEligible() {
+        RetentionRule eventRule = createManualEventBasedRuleMillisWithExpression(EVENT_ID, null,
+                Duration.ofDays(1).toMillis());
+        RetentionRule immediateRule = createManualImmediateRuleMillis(Duration.ofDays(1).toMillis());
+        DocumentModel indeterminate = service.attachRule(file, eventRule, session);
+        DocumentModel running = session.createDocument(session.createDocumentModel("/", "running", "File"));
+        running = service.attachRule(running, eventRule, session);
+        assertTrue(service.applyEventBasedRules(running.getAdapter(Record.class), EVENT_ID, (String) null, session));
+        DocumentModel immediate = session.createDocument(session.createDocumentModel("/", "immediate", "File"));
+        immediate = service.attachRule(immediate, immediateRule, session);
+        DocumentModel notRecord = session.createDocument(session.createDocumentModel("/", "notRecord", "File"));
+        session.save();
+
+        Set<String> eligibleIds = new TestListener().getEligibleIds(session.getRepositoryName(),
+                Set.of(indeterminate.getId(), running.getId(), immediate.getId(), notRecord.getId()));
+        assertEquals(Set.of(indeterminate.getId()), eligibleIds);
+    }
+
+    @Test
+    @Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-automation-contrib-test.xml")
+    public void testExpiredRecordEndActionsExecutedOnce() throws InterruptedException {
+        RetentionRule rule = createRuleWithActions(RetentionRule.ApplicationPolicy.MANUAL,
+                RetentionRule.StartingPointPolicy.EVENT_BASED, null, EVENT_ID, null, null, null, 0L, 0L, 0L, 100L, null,
+                List.of("MyCountedChain"));
+        file = service.attachRule(file, rule, session);
+        assertTrue(service.applyEventBasedRules(file.getAdapter(Record.class), EVENT_ID, (String) null, session));
+        session.save();
+        Thread.sleep(200);
+
+        // several events of the same bundle on the expired record
+        Map<String, Set<String>> docsToCheckAndEvents = Map.of(file.getId(),
+                Set.of(EVENT_ID, DocumentEventTypes.DOCUMENT_UPDATED));
+        RuleEvaluationWorker worker = new RuleEvaluationWorker(session.getRepositoryName(), docsToCheckAndEvents);
+        try (CapturingEventListener listener = new CapturingEventListener("myCountedChainExecuted")) {
+            worker.work();
+            assertEquals(1, listener.streamCapturedEvents().count());
+        }
+        assertEquals(1, worker.getEvaluated());
+        assertEquals(0, worker.getApplied());
+    }
+
+    @Test
+    public void testPendingRuleEvaluationsMerged() {
+        PendingRuleEvaluations pending = new PendingRuleEvaluations();
+        String repositoryName = session.getRepositoryName();
+        assertEquals(List.of("doc1"), pending.add(repositoryName, Map.of("doc1", Set.of("event1"))));
+        // already pending, no new work needed
+        assertEquals(List.of(), pending.add(repositoryName, Map.of("doc1", Set.of("event2"))));
+
+        Map<String, Set<String>> events = pending.take(repositoryName, List.of("doc1", "doc2"));
+        assertEquals(Map.of("doc1", Set.of("event1", "event2")), events);
+        assertTrue(pending.take(repositoryName, List.of("doc1")).isEmpty());
+        assertEquals(List.of("doc1"), pending.add(repositoryName, Map.of("doc1", Set.of("event1"))));
+        pending.take(repositoryName, List.of("doc1"));
+    }
+
+    @Test
+    public void testPendingRuleEvaluationsRescheduledWhenStale() {
+        PendingRuleEvaluations pending = new PendingRuleEvaluations() {
+            @Override
+            protected Duration getStaleDelay() {
+                // the evaluation work of any pending document is considered lost
+                return Duration.ZERO;
+            }
+        };
+        String repositoryName = session.getRepositoryName();
+        assertEquals(List.of("doc1"), pending.add(repositoryName, Map.of("doc1", Set.of("event1"))));
+        // a new work is needed, the pending events being kept
+        assertEquals(List.of("doc1"), pending.add(repositoryName, Map.of("doc1", Set.of("event2"))));
+        assertEquals(Map.of("doc1", Set.of("event1", "event2")), pending.take(repositoryName, List.of("doc1")));
+        // the lost work finds nothing left
+        assertTrue(pending.take(repositoryName, List.of("doc1")).isEmpty());
+    }
+
+    protected Event newEvent(DocumentModel doc, String eventName) {
+        return new DocumentEventContext(null, session.getPrincipal(), doc).newEvent(eventName);
+    }
+
+    /**
+     * Exposes the protected steps of the listener.
+     */
+    protected static class TestListener extends RetentionDocumentEventListener {
+
+        protected Map<String, Map<String, Set<String>>> getDocsByRepository(EventBundle events) {
+            return getDocsToCheckAndEventsByRepository(events);
+        }
+
+        protected Set<String> getEligibleIds(String repositoryName, Set<String> docIds) {
+            return getEligibleRecordIds(repositoryName, docIds);
+        }
+
+    }
+
+}
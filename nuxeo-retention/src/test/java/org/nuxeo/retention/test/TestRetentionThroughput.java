@@ -0,0 +1,221 @@
+/*
+ * (C) Copyright 2023 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Guillaume RENARD
+ */
+package org.nuxeo.retention.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.bulk.BulkAdminService;
+import org.nuxeo.ecm.core.bulk.message.BulkCommand;
+import org.nuxeo.ecm.core.bulk.message.BulkStatus;
+import org.nuxeo.retention.RetentionConstants;
+import org.nuxeo.retention.actions.AttachRetentionRuleAction;
+import org.nuxeo.retention.actions.EvalInputEventBasedRuleAction;
+import org.nuxeo.retention.actions.HoldDocumentsAction;
+import org.nuxeo.retention.actions.UnholdDocumentsAction;
+import org.nuxeo.retention.adapters.RetentionRule;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Throughput harness of the retention bulk actions, used to size their {@code defaultConcurrency} and
+ * {@code defaultPartitions}. It is skipped unless the number of records is given, for instance:
+ *
+ * <pre>
+ * mvn test -Dtest=TestRetentionThroughput -Dretention.throughput.records=10000 \
+ *     -Dnuxeo.bulk.action.attachRetentionRule.defaultConcurrency=4
+ * </pre>
+ *
+ * The records are split between an immediate, an event-based and a metadata-based rule. For each bulk action, the
+ * number of documents per second, the processing wall time divided by the number of buckets and the peak heap usage
+ * are logged and appended to {@code target/retention-throughput.csv}. As the buckets are processed concurrently, this
+ * amortized time per bucket is lower than the latency of a bucket.
+ *
+ * @since 2023.5
+ */
+@Deploy("org.nuxeo.retention.core.test:OSGI-INF/retention-vocabularies-test.xml")
+public class TestRetentionThroughput extends RetentionTestCase {
+
+    private static final Logger log = LogManager.getLogger(TestRetentionThroughput.class);
+
+    public static final String RECORDS_PROPERTY = "retention.throughput.records";
+
+    protected static final String REPORT_FILE = "retention-throughput.csv";
+
+    protected static final String ROOT_PATH = "/throughput";
+
+    protected static final String EVENT_ID = "myRetentionEvent";
+
+    protected static final String EVENT_INPUT = "myEventInput";
+
+    protected static final int COMMIT_SIZE = 1000;
+
+    protected final List<String> report = new ArrayList<>();
+
+    @Test
+    public void testThroughput() throws IOException, InterruptedException {
+        int count = Integer.getInteger(RECORDS_PROPERTY, 0);
+        assumeTrue("Set " + RECORDS_PROPERTY + " to run the throughput harness", count > 0);
+
+        RetentionRule immediateRule = createRuleWithActions(RetentionRule.ApplicationPolicy.MANUAL,
+                RetentionRule.StartingPointPolicy.IMMEDIATE, null, null, null, null, null, 1L, 0L, 0L, 0L, null, null);
+        RetentionRule eventBasedRule = createManualEventBasedRuleMillisWithEventValue(EVENT_ID, EVENT_INPUT,
+                Duration.ofDays(365).toMillis());
+        RetentionRule metadataBasedRule = createManualMetadataBasedRuleMillis("dc:expired",
+                Duration.ofDays(365).toMillis());
+        int perRule = Math.max(1, count / 3);
+        createDocuments("immediate", perRule);
+        createDocuments("eventBased", perRule);
+        createDocuments("metadataBased", perRule);
+        coreFeature.waitForAsyncCompletion();
+
+        String allQuery = "SELECT * FROM Document WHERE ecm:path STARTSWITH '" + ROOT_PATH + "'"
+                + " AND ecm:primaryType = 'File'";
+        run(new BulkCommand.Builder(HoldDocumentsAction.ACTION_NAME, allQuery, session.getPrincipal().getName()).param(
+                HoldDocumentsAction.PARAM_DESC, "throughput"), 3 * perRule);
+        run(new BulkCommand.Builder(UnholdDocumentsAction.ACTION_NAME, allQuery, session.getPrincipal().getName()),
+                3 * perRule);
+
+        run(attachCommand("immediate", immediateRule), perRule);
+        run(attachCommand("eventBased", eventBasedRule), perRule);
+        run(attachCommand("metadataBased", metadataBasedRule), perRule);
+
+        String eventQuery = RetentionConstants.RULE_RECORD_DOCUMENT_QUERY + " AND ecm:path STARTSWITH '" + ROOT_PATH
+                + "/eventBased'";
+        run(new BulkCommand.Builder(EvalInputEventBasedRuleAction.ACTION_NAME, eventQuery,
+                session.getPrincipal().getName()).param(EvalInputEventBasedRuleAction.ACTION_EVENT_ID_PARAM, EVENT_ID)
+                                                 .param(EvalInputEventBasedRuleAction.ACTION_EVENT_INPUT_PARAM,
+                                                         EVENT_INPUT),
+                perRule);
+
+        writeReport();
+    }
+
+    protected void createDocuments(String folderName, int count) {
+        if (!session.exists(new PathRef(ROOT_PATH))) {
+            session.createDocument(session.createDocumentModel("/", ROOT_PATH.substring(1), "Folder"));
+        }
+        DocumentModel folder = session.createDocumentModel(ROOT_PATH, folderName, "Folder");
+        folder = session.createDocument(folder);
+        Calendar expired = Calendar.getInstance();
+        expired.add(Calendar.DAY_OF_MONTH, 1);
+        for (int i = 0; i < count; i++) {
+            DocumentModel doc = session.createDocumentModel(folder.getPathAsString(), "file" + i, "File");
+            doc.setPropertyValue("dc:expired", expired);
+            session.createDocument(doc);
+            if ((i + 1) % COMMIT_SIZE == 0) {
+                session.save();
+                TransactionHelper.commitOrRollbackTransaction();
+                TransactionHelper.startTransaction();
+            }
+        }
+        session.save();
+    }
+
+    protected BulkCommand.Builder attachCommand(String folderName, RetentionRule rule) {
+        String query = "SELECT * FROM Document WHERE ecm:path STARTSWITH '" + ROOT_PATH + "/" + folderName + "'"
+                + " AND ecm:primaryType = 'File'";
+        return new BulkCommand.Builder(AttachRetentionRuleAction.ACTION_NAME, query,
+                session.getPrincipal().getName()).param(AttachRetentionRuleAction.PARAM_RULE_ID,
+                        rule.getDocument().getId());
+    }
+
+    /**
+     * Runs the command until completion and reports its throughput.
+     */
+    protected void run(BulkCommand.Builder builder, int expected) throws InterruptedException {
+        BulkCommand command = builder.repository(session.getRepositoryName()).build();
+        System.gc();
+        resetPeakHeap();
+        String commandId = bulkService.submit(command);
+        assertTrue("Bulk action didn't finish", bulkService.await(commandId, Duration.ofMinutes(30)));
+        long peakHeap = getPeakHeap();
+        coreFeature.waitForAsyncCompletion();
+
+        BulkStatus status = bulkService.getStatus(commandId);
+        assertEquals(BulkStatus.State.COMPLETED, status.getState());
+        assertEquals(expected, status.getProcessed());
+        String action = command.getAction();
+        int bucketSize = Framework.getService(BulkAdminService.class).getBucketSize(action);
+        long buckets = Math.max(1, (status.getProcessed() + bucketSize - 1) / bucketSize);
+        long processingMillis = Math.max(1,
+                Duration.between(status.getProcessingStartTime(), status.getProcessingEndTime()).toMillis());
+        double docsPerSecond = status.getProcessed() * 1000d / processingMillis;
+        String concurrency = Framework.getProperty("nuxeo.bulk.action." + action + ".defaultConcurrency", "2");
+        String partitions = Framework.getProperty("nuxeo.bulk.action." + action + ".defaultPartitions", "4");
+        log.info("{}: {} docs in {} ms, {} docs/s, {} amortized ms/bucket, peak heap {} MB (concurrency: {}, "
+                + "partitions: {})",
+                action, status.getProcessed(), processingMillis, String.format("%.1f", docsPerSecond),
+                processingMillis / buckets, peakHeap >> 20, concurrency, partitions);
+        report.add(String.join(",", action, String.valueOf(status.getProcessed()), String.valueOf(processingMillis),
+                String.format("%.1f", docsPerSecond), String.valueOf(processingMillis / buckets),
+                String.valueOf(peakHeap >> 20), concurrency, partitions));
+    }
+
+    protected void resetPeakHeap() {
+        ManagementFactory.getMemoryPoolMXBeans()
+                         .stream()
+                         .filter(pool -> pool.getType() == MemoryType.HEAP)
+                         .forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    protected long getPeakHeap() {
+        return ManagementFactory.getMemoryPoolMXBeans()
+                                .stream()
+                                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                                .sum();
+    }
+
+    protected void writeReport() throws IOException {
+        Path file = Paths.get("target", REPORT_FILE);
+        boolean header = !Files.exists(file);
+        Files.createDirectories(file.getParent());
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (header) {
+                writer.println("action,documents,processingMillis,docsPerSecond,amortizedMillisPerBucket,peakHeapMB,"
+                        + "concurrency,partitions");
+            }
+            report.forEach(writer::println);
+        }
+    }
+
+}